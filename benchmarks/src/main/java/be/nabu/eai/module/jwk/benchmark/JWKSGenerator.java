@@ -0,0 +1,155 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates keys, jwks documents and signed tokens for the benchmarks
+ */
+public class JWKSGenerator {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static KeyPair rsa() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		return generator.generateKeyPair();
+	}
+
+	public static KeyPair ec() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		return generator.generateKeyPair();
+	}
+
+	/**
+	 * Serializes the public key as a jwk, optionally with a fake certificate chain of the given size to mimic large multi-tenant documents
+	 */
+	public static String jwk(String keyId, PublicKey key, int chainSize) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"kid\":\"").append(keyId).append("\",\"use\":\"sig\"");
+		if (key instanceof RSAPublicKey) {
+			builder.append(",\"kty\":\"RSA\",\"alg\":\"RS256\"");
+			builder.append(",\"n\":\"").append(encode(unsigned(((RSAPublicKey) key).getModulus(), 256))).append("\"");
+			builder.append(",\"e\":\"").append(encode(((RSAPublicKey) key).getPublicExponent().toByteArray())).append("\"");
+		}
+		else if (key instanceof ECPublicKey) {
+			builder.append(",\"kty\":\"EC\",\"alg\":\"ES256\",\"crv\":\"P-256\"");
+			builder.append(",\"x\":\"").append(encode(unsigned(((ECPublicKey) key).getW().getAffineX(), 32))).append("\"");
+			builder.append(",\"y\":\"").append(encode(unsigned(((ECPublicKey) key).getW().getAffineY(), 32))).append("\"");
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported key: " + key);
+		}
+		if (chainSize > 0) {
+			byte[] certificate = new byte[chainSize];
+			new Random(keyId.hashCode()).nextBytes(certificate);
+			String encoded = Base64.getEncoder().encodeToString(certificate);
+			builder.append(",\"x5c\":[\"").append(encoded).append("\",\"").append(encoded).append("\"]");
+		}
+		builder.append("}");
+		return builder.toString();
+	}
+
+	public static byte[] document(List<String> jwks) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"keys\":[");
+		for (int i = 0; i < jwks.size(); i++) {
+			if (i > 0) {
+				builder.append(",");
+			}
+			builder.append(jwks.get(i));
+		}
+		builder.append("]}");
+		return builder.toString().getBytes(UTF8);
+	}
+
+	public static File write(File directory, String name, byte[] content) throws IOException {
+		File file = new File(directory, name);
+		Files.write(file.toPath(), content);
+		return file;
+	}
+
+	/**
+	 * Creates a compact serialized jwt signed with RS256 or ES256
+	 */
+	public static String token(String algorithm, String keyId, PrivateKey key, String payload) throws Exception {
+		String header = "{\"alg\":\"" + algorithm + "\",\"typ\":\"JWT\",\"kid\":\"" + keyId + "\"}";
+		String content = encode(header.getBytes(UTF8)) + "." + encode(payload.getBytes(UTF8));
+		Signature signature = Signature.getInstance(algorithm.startsWith("ES") ? "SHA256withECDSA" : "SHA256withRSA");
+		signature.initSign(key);
+		signature.update(content.getBytes(UTF8));
+		byte[] signed = signature.sign();
+		if (algorithm.startsWith("ES")) {
+			signed = toConcatenated(signed, 32);
+		}
+		return content + "." + encode(signed);
+	}
+
+	// jose uses the concatenated r and s values instead of the der encoding the jca produces
+	private static byte[] toConcatenated(byte[] der, int length) {
+		int offset = 2;
+		if ((der[1] & 0xff) > 0x80) {
+			offset += (der[1] & 0xff) - 0x80;
+		}
+		int rLength = der[offset + 1];
+		BigInteger r = new BigInteger(1, java.util.Arrays.copyOfRange(der, offset + 2, offset + 2 + rLength));
+		offset += 2 + rLength;
+		int sLength = der[offset + 1];
+		BigInteger s = new BigInteger(1, java.util.Arrays.copyOfRange(der, offset + 2, offset + 2 + sLength));
+		byte[] result = new byte[length * 2];
+		System.arraycopy(unsigned(r, length), 0, result, 0, length);
+		System.arraycopy(unsigned(s, length), 0, result, length, length);
+		return result;
+	}
+
+	private static byte[] unsigned(BigInteger value, int length) {
+		byte[] bytes = value.toByteArray();
+		if (bytes.length == length) {
+			return bytes;
+		}
+		byte[] result = new byte[length];
+		if (bytes.length > length) {
+			System.arraycopy(bytes, bytes.length - length, result, 0, length);
+		}
+		else {
+			System.arraycopy(bytes, 0, result, length - bytes.length, bytes.length);
+		}
+		return result;
+	}
+
+	private static String encode(byte[] bytes) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+	}
+}
@@ -0,0 +1,88 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.eai.module.jwk.JWKSParser;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.binding.json.JSONBinding;
+import be.nabu.libs.types.map.MapTypeGenerator;
+
+/**
+ * Compares the dedicated jwks parser with the generic json binding that was used before
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JWKSParseBenchmark {
+
+	// a typical single tenant document versus a large multi-tenant one with certificate chains
+	@Param({ "2", "500" })
+	private int keys;
+
+	private byte[] document;
+
+	@Setup
+	public void setup() throws Exception {
+		// the parsers don't care whether the keys are unique so we reuse a single key pair
+		KeyPair pair = JWKSGenerator.rsa();
+		List<String> jwks = new ArrayList<String>();
+		for (int i = 0; i < keys; i++) {
+			jwks.add(JWKSGenerator.jwk("key-" + i, pair.getPublic(), keys > 10 ? 1024 : 0));
+		}
+		document = JWKSGenerator.document(jwks);
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> parser() throws Exception {
+		return JWKSParser.parseKeys(document);
+	}
+
+	@Benchmark
+	public Object binding() throws Exception {
+		JSONBinding binding = new JSONBinding(new MapTypeGenerator(true), Charset.forName("UTF-8"));
+		binding.setAllowDynamicElements(true);
+		binding.setAddDynamicElementDefinitions(true);
+		binding.setAllowRaw(true);
+		binding.setParseNumbers(true);
+		binding.setSetEmptyArrays(true);
+		return binding.unmarshal(new ByteArrayInputStream(document), new Window[0]);
+	}
+}
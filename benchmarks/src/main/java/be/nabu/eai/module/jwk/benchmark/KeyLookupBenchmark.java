@@ -0,0 +1,84 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.eai.module.jwk.JWKArtifact;
+import be.nabu.libs.resources.memory.MemoryDirectory;
+
+/**
+ * The key lookup that happens for every token, under contention
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class KeyLookupBenchmark {
+
+	private JWKArtifact artifact;
+
+	@Setup
+	public void setup() throws Exception {
+		File directory = Files.createTempDirectory("jwk-benchmark").toFile();
+		directory.deleteOnExit();
+		List<String> jwks = new ArrayList<String>();
+		for (int i = 0; i < 3; i++) {
+			jwks.add(JWKSGenerator.jwk("key-" + i, JWKSGenerator.rsa().getPublic(), 0));
+		}
+		File file = JWKSGenerator.write(directory, "jwks.json", JWKSGenerator.document(jwks));
+		file.deleteOnExit();
+		artifact = new JWKArtifact("benchmark.jwk", new MemoryDirectory(), null);
+		artifact.getConfig().setUris(Arrays.asList(file.toURI()));
+		if (artifact.getKeyMap().size() != 3) {
+			throw new IllegalStateException("Expected 3 keys, got: " + artifact.getKeyMap().keySet());
+		}
+	}
+
+	@Benchmark
+	public Map<String, PublicKey> keyMap() {
+		return artifact.getKeyMap();
+	}
+
+	@Benchmark
+	public Map<String, PublicKey> keyMapByKeyId() {
+		return artifact.getKeyMap("key-1");
+	}
+}
@@ -0,0 +1,88 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk.benchmark;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.eai.module.jwk.JWKArtifact;
+import be.nabu.eai.module.jwk.JWKEntry;
+import be.nabu.libs.resources.memory.MemoryDirectory;
+
+/**
+ * Concurrent forced refreshes of one or more uris of the same artifact.
+ * The http branch needs a running repository for its http client, so the documents are served from local files which exercises the same single-flight, parsing and key reuse logic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class RefreshBenchmark {
+
+	@Param({ "1", "16" })
+	private int uriCount;
+
+	private List<URI> uris = new ArrayList<URI>();
+	private JWKArtifact artifact;
+	private AtomicInteger counter = new AtomicInteger();
+
+	@Setup
+	public void setup() throws Exception {
+		File directory = Files.createTempDirectory("jwk-benchmark").toFile();
+		directory.deleteOnExit();
+		List<String> jwks = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			jwks.add(JWKSGenerator.jwk("key-" + i, JWKSGenerator.rsa().getPublic(), 0));
+		}
+		byte[] document = JWKSGenerator.document(jwks);
+		for (int i = 0; i < uriCount; i++) {
+			File file = JWKSGenerator.write(directory, "jwks-" + i + ".json", document);
+			file.deleteOnExit();
+			uris.add(file.toURI());
+		}
+		artifact = new JWKArtifact("benchmark.jwk", new MemoryDirectory(), null);
+		artifact.getConfig().setUris(uris);
+		artifact.getKeyMap();
+	}
+
+	@Benchmark
+	public JWKEntry refresh() throws Exception {
+		return artifact.loadJWK(uris.get(counter.incrementAndGet() % uris.size()), true);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.eai.module.jwk.JWKArtifact;
+import be.nabu.libs.http.jwt.JWTBody;
+import be.nabu.libs.http.jwt.JWTUtils;
+import be.nabu.libs.resources.memory.MemoryDirectory;
+
+/**
+ * Token verification for the different key types, both directly through the jwt utilities and through the artifact (which adds key selection and the token cache)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerificationBenchmark {
+
+	@Param({ "RS256", "ES256" })
+	private String algorithm;
+
+	@SuppressWarnings("rawtypes")
+	private Map keyMap;
+	private String token;
+	private JWKArtifact artifact, cachingArtifact;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Setup
+	public void setup() throws Exception {
+		KeyPair pair = algorithm.startsWith("ES") ? JWKSGenerator.ec() : JWKSGenerator.rsa();
+		keyMap = new HashMap();
+		keyMap.put("key", pair.getPublic());
+		long expires = (System.currentTimeMillis() / 1000) + 60 * 60 * 24;
+		token = JWKSGenerator.token(algorithm, "key", pair.getPrivate(), "{\"sub\":\"benchmark\",\"iss\":\"https://benchmark.nabu.be\",\"exp\":" + expires + "}");
+		
+		File directory = Files.createTempDirectory("jwk-benchmark").toFile();
+		directory.deleteOnExit();
+		File file = JWKSGenerator.write(directory, "jwks.json", JWKSGenerator.document(Arrays.asList(JWKSGenerator.jwk("key", pair.getPublic(), 0))));
+		file.deleteOnExit();
+		
+		artifact = new JWKArtifact("benchmark.jwk", new MemoryDirectory(), null);
+		artifact.getConfig().setUris(Arrays.asList(file.toURI()));
+		
+		cachingArtifact = new JWKArtifact("benchmark.cachingJwk", new MemoryDirectory(), null);
+		cachingArtifact.getConfig().setUris(Arrays.asList(file.toURI()));
+		cachingArtifact.getConfig().setTokenCacheSize(1000);
+		
+		if (decode() == null || unmarshal() == null || unmarshalCached() == null) {
+			throw new IllegalStateException("Could not verify the benchmark token");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Benchmark
+	public JWTBody decode() throws Exception {
+		return JWTUtils.decode(keyMap, token);
+	}
+
+	@Benchmark
+	public JWTBody unmarshal() throws Exception {
+		return artifact.unmarshal(token);
+	}
+
+	@Benchmark
+	public JWTBody unmarshalCached() throws Exception {
+		return cachingArtifact.unmarshal(token);
+	}
+}
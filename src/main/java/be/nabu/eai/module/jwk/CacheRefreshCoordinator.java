@@ -0,0 +1,73 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import be.nabu.libs.cache.api.Cache;
+
+/**
+ * Stores the leases in a (distributed) cache. The cache interface has no atomic compare-and-set so we write our lease and read it back, if another node wrote at the same time only one of us sees its own lease.
+ * At worst two nodes refresh at the same time, which is what happens without coordination anyway.
+ */
+public class CacheRefreshCoordinator implements JWKRefreshCoordinator {
+
+	// identifies this node (or rather this jvm)
+	private static final String NODE = UUID.randomUUID().toString().replace("-", "");
+	
+	private Cache cache;
+
+	public CacheRefreshCoordinator(Cache cache) {
+		this.cache = cache;
+	}
+	
+	@Override
+	public boolean acquire(String key, long duration) throws IOException {
+		long now = System.currentTimeMillis();
+		String current = (String) cache.get(key);
+		if (current != null && !isOwned(current) && getExpires(current) > now) {
+			return false;
+		}
+		String lease = NODE + ":" + (now + duration);
+		cache.put(key, lease);
+		return lease.equals(cache.get(key));
+	}
+
+	@Override
+	public void release(String key) throws IOException {
+		String current = (String) cache.get(key);
+		if (current != null && isOwned(current)) {
+			cache.clear(key);
+		}
+	}
+	
+	private boolean isOwned(String lease) {
+		return lease.startsWith(NODE + ":");
+	}
+	
+	private long getExpires(String lease) {
+		try {
+			return Long.parseLong(lease.substring(lease.indexOf(':') + 1));
+		}
+		catch (NumberFormatException e) {
+			// not a valid lease, consider it expired
+			return 0;
+		}
+	}
+}
@@ -17,42 +17,63 @@
 
 package be.nabu.eai.module.jwk;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStoreException;
 import java.security.PublicKey;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import be.nabu.eai.repository.RepositoryThreadFactory;
 import be.nabu.eai.repository.api.Repository;
 import be.nabu.eai.repository.artifacts.jaxb.JAXBArtifact;
-import be.nabu.eai.repository.util.SystemPrincipal;
 import be.nabu.libs.artifacts.api.CacheableArtifact;
 import be.nabu.libs.artifacts.api.StartableArtifact;
 import be.nabu.libs.artifacts.api.StoppableArtifact;
 import be.nabu.libs.cache.api.Cache;
 import be.nabu.libs.cache.impl.AccessBasedTimeoutManager;
-import be.nabu.libs.cache.impl.SerializableSerializer;
 import be.nabu.libs.cache.impl.StringSerializer;
 import be.nabu.libs.cache.memory.MemoryCache;
 import be.nabu.libs.http.api.HTTPResponse;
 import be.nabu.libs.http.api.client.HTTPClient;
 import be.nabu.libs.http.core.DefaultHTTPRequest;
 import be.nabu.libs.http.core.HTTPUtils;
+import be.nabu.libs.http.jwt.JWTBody;
+import be.nabu.libs.http.jwt.JWTUtils;
 import be.nabu.libs.resources.ResourceUtils;
 import be.nabu.libs.resources.api.ResourceContainer;
 import be.nabu.libs.types.base.Duration;
-import be.nabu.libs.types.binding.api.Window;
-import be.nabu.libs.types.binding.json.JSONBinding;
-import be.nabu.libs.types.map.MapContent;
-import be.nabu.libs.types.map.MapTypeGenerator;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.ReadableContainer;
@@ -62,17 +83,65 @@ import be.nabu.utils.mime.impl.MimeHeader;
 import be.nabu.utils.mime.impl.MimeUtils;
 import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
 import be.nabu.utils.security.BCSecurityUtils;
-import nabu.protocols.http.client.Services;
 
 public class JWKArtifact extends JAXBArtifact<JWKConfiguration> implements StartableArtifact, StoppableArtifact, CacheableArtifact {
 	
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	
 	private Cache cache;
+	// a cache that is plugged in from the outside instead of the configured one
+	private volatile Cache pluggedCache;
 
-	private Thread thread;
+	// the initial loading of the keys
+	private volatile CompletableFuture<Void> warmup;
 	
-	// whether or not we want to poll the JWK periodically
+	// the loads that are currently running, per uri
+	private Map<String, CompletableFuture<JWKEntry>> loading = new ConcurrentHashMap<String, CompletableFuture<JWKEntry>>();
+	
+	// the background refreshes that are scheduled, per uri
+	private Map<String, ScheduledFuture<?>> refreshes = new HashMap<String, ScheduledFuture<?>>();
+	
+	// the amount of consecutive failed refreshes, per uri
+	private Map<String, Integer> refreshFailures = new ConcurrentHashMap<String, Integer>();
+	
+	// until when we wait before retrying a failed uri
+	private Map<String, Long> retryAfter = new ConcurrentHashMap<String, Long>();
+	
+	// the amount of consecutive failures after which we no longer allow forced reloads before the backoff has passed
+	private static final int CIRCUIT_THRESHOLD = 5;
+	
+	// the backoff after a failed refresh, it doubles with each consecutive failure
+	private static final long MINIMUM_BACKOFF = 30l * 1000, MAXIMUM_BACKOFF = 30l * 60 * 1000;
+	
+	// how long a node can take to refresh a document before another node takes over
+	private static final long REFRESH_LEASE = 30l * 1000;
+	
+	// how soon we check again for the result of a refresh that is running on another node
+	private static final long DELEGATED_REFRESH_CHECK = 1000;
+	
+	// coordinates the refreshes with the other nodes in the cluster, this is only needed if the cache is shared
+	private volatile JWKRefreshCoordinator refreshCoordinator;
+	
+	// the interval at which we refresh entries without an expiry
+	private static final long DEFAULT_REFRESH_INTERVAL = 30l * 60 * 1000;
+	
+	private AtomicReference<JWKSnapshot> snapshot = new AtomicReference<JWKSnapshot>();
+	
+	// the last time we forced a reload because of an unknown key id
+	private AtomicLong lastUnknownKeyRefresh = new AtomicLong();
+	
+	// the verified tokens, if enabled
+	private volatile JWTCache tokenCache;
+	
+	private volatile JWKMetrics metrics;
+	
+	// the last published document
+	private volatile JWKSDocument document;
+	
+	// key ids that remained unknown after a forced reload and until when we consider them unknown
+	private Map<String, Long> unknownKeyIds = new ConcurrentHashMap<String, Long>();
+	
+	// whether or not we want to refresh the JWK periodically in the background, even without stale-while-revalidate
 	// the chance that we actually hit a timeout _before_ someone else triggers the timeout is very small
 	// so it is most likely a useless feature unless you have very low volume jwk usage
 	private boolean pollPeriodically = Boolean.parseBoolean(System.getProperty("jwk.poll", "false"));
@@ -82,16 +151,22 @@ public class JWKArtifact extends JAXBArtifact<JWKConfiguration> implements Start
 	}
 	
 	public Map<String, PublicKey> getKeyMap() {
-		Map<String, PublicKey> keyMap = new HashMap<String, PublicKey>();
+		return getSnapshot().getKeys();
+	}
+	
+	// the hot path is a single volatile read, we only go through the entries if the configuration changed or an entry expired
+	public JWKSnapshot getSnapshot() {
 		List<URI> uris = getConfig().getUris();
+		JWKSnapshot current = snapshot.get();
+		if (current != null && current.getUris() == uris && !current.isExpired(System.currentTimeMillis())) {
+			return current;
+		}
+		Map<String, JWKEntry> entries = new LinkedHashMap<String, JWKEntry>();
 		if (uris != null && !uris.isEmpty()) {
 			for (URI uri : uris) {
 				if (uri != null) {
 					try {
-						JWKEntry entry = loadJWK(uri, false);
-						if (entry != null && entry.getKeys() != null) {
-							keyMap.putAll(entry.getKeys());
-						}
+						entries.put(uri.toASCIIString(), loadJWK(uri, false));
 					}
 					catch (IOException e) {
 						logger.warn("Could not get keys for JWK url: " + uri, e);
@@ -99,209 +174,681 @@ public class JWKArtifact extends JAXBArtifact<JWKConfiguration> implements Start
 				}
 			}
 		}
+		// re-read, a load may have published a newer snapshot in the meantime
+		current = snapshot.get();
+		if (current != null && current.getUris() == uris && current.getEntries().equals(entries)) {
+			return current;
+		}
+		// if we refresh in the background, the snapshot remains usable while the refreshes are running
+		JWKSnapshot updated = new JWKSnapshot(uris, entries, getConfig().isStaleWhileRevalidate() ? getMaximumStaleness() : 0);
+		// if a load published a newer snapshot while we were building ours, we don't overwrite it with our (possibly older) entries
+		if (!snapshot.compareAndSet(current, updated)) {
+			JWKSnapshot winner = snapshot.get();
+			if (winner != null && winner.getUris() == uris) {
+				return winner;
+			}
+			// the winner is for a different configuration, we simply return ours without storing it, the next call rebuilds for the current configuration
+			return updated;
+		}
+		getMetrics().set(null, JWKMetrics.KEY_COUNT, updated.getKeys().size());
+		return updated;
+	}
+	
+	public JWKMetrics getMetrics() {
+		if (metrics == null) {
+			synchronized(this) {
+				if (metrics == null) {
+					metrics = new JWKMetrics(getRepository() == null ? null : getRepository().getMetricInstance(getId()));
+				}
+			}
+		}
+		return metrics;
+	}
+	
+	public JWTBody unmarshal(String content) throws KeyStoreException, IOException, ParseException {
+		JWTHeader header = precheck(content);
+		// this picks up rotated keys if the key id is unknown
+		getKeyMap(header.getKeyId());
+		JWKSnapshot current = getSnapshot();
+		checkKeyId(header, current);
+		return unmarshal(content, header, current);
+	}
+	
+	// the algorithms we accept by default, symmetric algorithms can never be verified with a public key
+	private static final List<String> DEFAULT_ALGORITHMS = Arrays.asList("RS256", "RS384", "RS512", "PS256", "PS384", "PS512", "ES256", "ES384", "ES512", "EdDSA");
+	
+	/**
+	 * Rejects tokens that can never be valid before we decode the payload or attempt any cryptography, this only looks at the structure and the header
+	 */
+	private JWTHeader precheck(String content) throws ParseException, KeyStoreException {
+		if (content == null || content.length() > getMaximumTokenSize()) {
+			throw reject("size", new ParseException("The token is empty or too large", 0));
+		}
+		try {
+			checkStructure(content);
+		}
+		catch (ParseException e) {
+			throw reject("structure", e);
+		}
+		JWTHeader header = JWTHeader.parse(content);
+		if (header == null) {
+			throw reject("header", new ParseException("The token header can not be parsed", 0));
+		}
+		List<String> allowed = getConfig().getAllowedAlgorithms() == null || getConfig().getAllowedAlgorithms().isEmpty() ? DEFAULT_ALGORITHMS : getConfig().getAllowedAlgorithms();
+		// unsigned tokens are never accepted, regardless of the configuration
+		if (header.getAlgorithm() == null || header.getAlgorithm().equalsIgnoreCase("none") || !allowed.contains(header.getAlgorithm())) {
+			throw reject("algorithm", new KeyStoreException("The algorithm is not allowed: " + header.getAlgorithm()));
+		}
+		return header;
+	}
+	
+	/**
+	 * Checks that the token is a compact serialized jws: exactly three non-empty base64url encoded parts. This does not depend on the configuration so it can be done before we know which artifact the token is for.
+	 */
+	public static void checkStructure(String content) throws ParseException {
+		int first = -1, second = -1;
+		for (int i = 0; i < content.length(); i++) {
+			char character = content.charAt(i);
+			if (character == '.') {
+				if (first < 0) {
+					first = i;
+				}
+				else if (second < 0) {
+					second = i;
+				}
+				else {
+					throw new ParseException("The token has too many parts", i);
+				}
+			}
+			else if (!((character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z') || (character >= '0' && character <= '9') || character == '-' || character == '_')) {
+				throw new ParseException("The token contains an invalid character", i);
+			}
+		}
+		if (first <= 0 || second < 0 || second == first + 1 || second == content.length() - 1) {
+			throw new ParseException("The token does not consist of a header, payload and signature", 0);
+		}
+	}
+	
+	// a key id that is still unknown after we had the chance to reload the keys will never verify
+	private void checkKeyId(JWTHeader header, JWKSnapshot current) throws KeyStoreException {
+		if (header.getKeyId() != null && !current.getIndex().containsKey(header.getKeyId())) {
+			throw reject("unknownKey", new KeyStoreException("Unknown key id: " + header.getKeyId()));
+		}
+	}
+	
+	private <T extends Exception> T reject(String reason, T exception) {
+		getMetrics().increment(null, JWKMetrics.REJECTED + "." + reason);
+		return exception;
+	}
+	
+	int getMaximumTokenSize() {
+		Integer maximumTokenSize = getConfig().getMaximumTokenSize();
+		return maximumTokenSize == null ? 16 * 1024 : maximumTokenSize;
+	}
+	
+	/**
+	 * Unmarshals a batch of tokens in parallel against a single snapshot of the keys. A failing token does not stop the others, its error is reported in its result.
+	 */
+	public List<JWKResult> unmarshal(List<String> contents) throws IOException {
+		List<JWTHeader> headers = new ArrayList<JWTHeader>();
+		// the tokens that were rejected by the precheck
+		Map<Integer, String> rejected = new HashMap<Integer, String>();
+		Set<String> keyIds = new HashSet<String>();
+		for (String content : contents) {
+			JWTHeader header = null;
+			if (content != null) {
+				try {
+					header = precheck(content);
+				}
+				catch (Exception e) {
+					rejected.put(headers.size(), e.getMessage());
+				}
+			}
+			headers.add(header);
+			if (header != null && header.getKeyId() != null && keyIds.add(header.getKeyId())) {
+				getKeyMap(header.getKeyId());
+			}
+		}
+		final JWKSnapshot current = getSnapshot();
+		ExecutorService verifier = JWKExecutors.getVerifier(getRepository());
+		List<Future<JWTBody>> futures = new ArrayList<Future<JWTBody>>();
+		for (int i = 0; i < contents.size(); i++) {
+			final String content = contents.get(i);
+			final JWTHeader header = headers.get(i);
+			futures.add(header == null ? null : verifier.submit(new Callable<JWTBody>() {
+				@Override
+				public JWTBody call() throws Exception {
+					checkKeyId(header, current);
+					return unmarshal(content, header, current);
+				}
+			}));
+		}
+		List<JWKResult> results = new ArrayList<JWKResult>();
+		for (int i = 0; i < futures.size(); i++) {
+			Future<JWTBody> future = futures.get(i);
+			JWKResult result = new JWKResult();
+			result.setError(rejected.get(i));
+			if (future != null) {
+				try {
+					result.setJwt(future.get());
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause() == null ? e : e.getCause();
+					result.setError(cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage());
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while verifying tokens", e);
+				}
+			}
+			results.add(result);
+		}
+		return results;
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private JWTBody unmarshal(String content, JWTHeader header, JWKSnapshot current) throws KeyStoreException, IOException, ParseException {
+		JWKMetrics metrics = getMetrics();
+		metrics.increment(null, JWKMetrics.VERIFICATION);
+		long started = System.currentTimeMillis();
+		try {
+			String keyId = header == null ? null : header.getKeyId();
+			Map keyMap = current.getKeys();
+			JWTCache tokenCache = getTokenCache();
+			if (tokenCache != null) {
+				JWTBody cached = tokenCache.get(content, keyMap);
+				if (cached != null) {
+					metrics.increment(null, JWKMetrics.TOKEN_CACHE_HIT);
+					return cached;
+				}
+			}
+			// we only hand the keys that can actually verify this token to the decoder
+			Map candidates = current.getCandidates(header);
+			if (candidates.isEmpty()) {
+				throw new KeyStoreException("No key found that can verify a token with key id '" + keyId + "' and algorithm: " + (header == null ? null : header.getAlgorithm()));
+			}
+			JWTBody body = JWTUtils.decode(candidates, content);
+			if (tokenCache != null && body != null) {
+				tokenCache.put(content, body, keyId, keyMap);
+			}
+			return body;
+		}
+		// the failure reason is the type of exception
+		catch (Exception e) {
+			metrics.increment(null, JWKMetrics.VERIFICATION_FAILURE + "." + e.getClass().getSimpleName());
+			throw e;
+		}
+		finally {
+			metrics.time(null, JWKMetrics.VERIFICATION_TIME, System.currentTimeMillis() - started);
+		}
+	}
+	
+	/**
+	 * Checks whether the token has a valid signature from one of our keys and is valid at this moment (exp and nbf).
+	 * Unlike unmarshal this does not decode the token, but it reuses initialized signature instances so the cost is mostly the verification itself.
+	 */
+	public boolean verify(String content) throws IOException {
+		JWKMetrics metrics = getMetrics();
+		metrics.increment(null, JWKMetrics.VERIFICATION);
+		long started = System.currentTimeMillis();
+		try {
+			JWTHeader header;
+			try {
+				header = precheck(content);
+				getKeyMap(header.getKeyId());
+				checkKeyId(header, getSnapshot());
+			}
+			catch (ParseException | KeyStoreException e) {
+				return false;
+			}
+			int signatureIndex = content.lastIndexOf('.');
+			byte[] signed = content.substring(0, signatureIndex).getBytes(Charset.forName("ASCII"));
+			byte[] signature = Base64.getUrlDecoder().decode(content.substring(signatureIndex + 1));
+			for (JWKKey key : getSnapshot().getCandidateKeys(header)) {
+				try {
+					if (key.getVerifier().verify(header.getAlgorithm(), signed, signature)) {
+						if (isCurrent(content.substring(content.indexOf('.') + 1, signatureIndex))) {
+							return true;
+						}
+						metrics.increment(null, JWKMetrics.VERIFICATION_FAILURE + ".expired");
+						return false;
+					}
+				}
+				catch (GeneralSecurityException e) {
+					logger.debug("Could not verify token with key: " + key.getKeyId(), e);
+				}
+			}
+			metrics.increment(null, JWKMetrics.VERIFICATION_FAILURE + ".signature");
+			return false;
+		}
+		catch (IllegalArgumentException e) {
+			// invalid base64
+			metrics.increment(null, JWKMetrics.VERIFICATION_FAILURE + ".malformed");
+			return false;
+		}
+		finally {
+			metrics.time(null, JWKMetrics.VERIFICATION_TIME, System.currentTimeMillis() - started);
+		}
+	}
+	
+	// checks the exp and nbf claims of the payload, we allow one minute of clock skew
+	private boolean isCurrent(String payload) {
+		try {
+			Map<String, Object> claims = JWKSParser.parseObject(Base64.getUrlDecoder().decode(payload));
+			long now = System.currentTimeMillis() / 1000;
+			Object expires = claims.get("exp");
+			if (expires instanceof Number && ((Number) expires).longValue() + 60 < now) {
+				return false;
+			}
+			Object notBefore = claims.get("nbf");
+			if (notBefore instanceof Number && ((Number) notBefore).longValue() - 60 > now) {
+				return false;
+			}
+			return true;
+		}
+		catch (Exception e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * The merged public keys as a jwks document, only available if publishing is enabled
+	 */
+	public JWKSDocument getDocument() {
+		if (!getConfig().isPublish()) {
+			throw new IllegalStateException("The JWK artifact '" + getId() + "' does not publish its keys");
+		}
+		JWKSDocument document = getSnapshot().getDocument(this.document);
+		this.document = document;
+		return document;
+	}
+	
+	private JWTCache getTokenCache() {
+		Integer size = getConfig().getTokenCacheSize();
+		if (tokenCache == null && size != null && size > 0) {
+			synchronized(this) {
+				if (tokenCache == null) {
+					Duration duration = getConfig().getTokenCacheDuration();
+					tokenCache = new JWTCache(size, duration == null ? 1000l * 60 * 5 : 1000l * duration.toSeconds());
+				}
+			}
+		}
+		return tokenCache;
+	}
+	
+	/**
+	 * Get the key map that should contain the given key id. If we don't know the key id, the identity provider may have rotated its keys and we force a reload.
+	 * To prevent random key ids from hammering the identity provider, forced reloads are rate limited and key ids that remain unknown are remembered for a while.
+	 */
+	public Map<String, PublicKey> getKeyMap(String keyId) {
+		Map<String, PublicKey> keyMap = getKeyMap();
+		if (keyId == null || keyMap.containsKey(keyId)) {
+			return keyMap;
+		}
+		getMetrics().increment(null, JWKMetrics.UNKNOWN_KEY);
+		long now = System.currentTimeMillis();
+		Long unknownUntil = unknownKeyIds.get(keyId);
+		if (unknownUntil != null && unknownUntil > now) {
+			return keyMap;
+		}
+		long interval = getUnknownKeyRefreshInterval();
+		long last = lastUnknownKeyRefresh.get();
+		// someone else recently forced a refresh or is doing so right now
+		if (last + interval > now || !lastUnknownKeyRefresh.compareAndSet(last, now)) {
+			return keyMap;
+		}
+		logger.info("Forcing reload of JWK '" + getId() + "' for unknown key id: " + keyId);
+		getMetrics().increment(null, JWKMetrics.UNKNOWN_KEY_REFRESH);
+		List<URI> uris = getConfig().getUris();
+		if (uris != null) {
+			for (URI uri : uris) {
+				if (uri != null) {
+					try {
+						loadJWK(uri, true);
+					}
+					catch (IOException e) {
+						logger.warn("Could not reload keys for JWK url: " + uri, e);
+					}
+				}
+			}
+		}
+		keyMap = getKeyMap();
+		if (!keyMap.containsKey(keyId)) {
+			// we don't want an unbounded amount of unknown keys, if we have too many it is likely an attack and the rate limiting protects the identity provider anyway
+			if (unknownKeyIds.size() >= 1000) {
+				unknownKeyIds.clear();
+			}
+			unknownKeyIds.put(keyId, now + interval);
+		}
 		return keyMap;
 	}
+	
+	private long getUnknownKeyRefreshInterval() {
+		Duration interval = getConfig().getUnknownKeyRefreshInterval();
+		return interval == null ? 1000l * 60 : 1000l * interval.toSeconds();
+	}
+	
+	// when a load produces a new entry, we swap it into the current snapshot
+	private void publish(String uri, JWKEntry entry) {
+		while (true) {
+			JWKSnapshot current = snapshot.get();
+			// if there is no snapshot yet or the uri is not part of it, it will be picked up when the snapshot is rebuilt
+			if (current == null || !current.contains(uri)) {
+				break;
+			}
+			JWKSnapshot updated = current.with(uri, entry);
+			if (snapshot.compareAndSet(current, updated)) {
+				getMetrics().set(null, JWKMetrics.KEY_COUNT, updated.getKeys().size());
+				break;
+			}
+		}
+	}
 
 	// spec: https://datatracker.ietf.org/doc/html/rfc7517#page-6
-	// note that if anything goes wrong (apart from cache storage), we will still store an empty entry with a timeout so we will try again later
-	@SuppressWarnings({ "unused", "rawtypes", "unchecked" })
+	// note that if anything goes wrong (apart from cache storage), we still store an entry that keeps the last known good keys (if any) and expires after the backoff so we will try again later
 	public JWKEntry loadJWK(URI uri, boolean force) throws IOException {
-		JWKEntry entry = cache == null ? null : (JWKEntry) cache.get(uri.toASCIIString());
+		String key = uri.toASCIIString();
+		JWKEntry entry = getCached(uri);
+		// a forced reload does not bypass the backoff of an endpoint that keeps failing
+		if (force && entry != null && isCircuitOpen(key)) {
+			return entry;
+		}
 		if (!force && entry != null) {
 			if (entry.getExpires().after(new Date())) {
-				logger.warn("Skipping jwk loading of '" + uri + "' because the last load is not expired yet");
+				getMetrics().increment(key, JWKMetrics.CACHE_HIT);
+				scheduleRefresh(uri, entry);
+				return entry;
+			}
+			// if we are allowed to, we keep serving the expired entry while it is refreshed in the background
+			else if (getConfig().isStaleWhileRevalidate() && entry.getExpires().getTime() + getMaximumStaleness() > System.currentTimeMillis()) {
+				getMetrics().increment(key, JWKMetrics.STALE_HIT);
+				scheduleRefresh(uri, entry);
 				return entry;
 			}
 		}
 		
 		// if we are actually loading a JWK endpoint, we want to make sure we are loading it only once at the same time
-		synchronized(this) {
-			// recheck the cache, it may have been added by whoever had the lock
-			entry = cache == null ? null : (JWKEntry) cache.get(uri.toASCIIString());
-			if (!force && entry != null) {
-				if (entry.getExpires().after(new Date())) {
-					logger.warn("Skipping jwk loading of '" + uri + "' because the last load is not expired yet");
-					return entry;
+		// this is done per uri so a slow endpoint does not block the others, concurrent callers for the same uri share the result of the running load
+		CompletableFuture<JWKEntry> future = new CompletableFuture<JWKEntry>();
+		CompletableFuture<JWKEntry> running = loading.putIfAbsent(key, future);
+		if (running != null) {
+			return await(uri, running);
+		}
+		try {
+			// recheck the cache, it may have been added by a load that finished before we registered ours
+			entry = getCached(uri);
+			if (force || entry == null || !entry.getExpires().after(new Date())) {
+				getMetrics().increment(key, JWKMetrics.CACHE_MISS);
+				entry = coordinatedFetch(uri, entry);
+			}
+			else {
+				getMetrics().increment(key, JWKMetrics.CACHE_HIT);
+			}
+			future.complete(entry);
+			return entry;
+		}
+		// whatever goes wrong (including errors), the callers waiting for this load must be released
+		catch (Throwable e) {
+			future.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			loading.remove(key, future);
+		}
+	}
+	
+	private JWKEntry await(URI uri, CompletableFuture<JWKEntry> future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for JWK uri: " + uri, e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Could not load JWK uri: " + uri, e.getCause());
+		}
+	}
+	
+	// gets the entry from the cache, an entry that comes from a distributed cache only contains the document so we build the keys here
+	private JWKEntry getCached(URI uri) throws IOException {
+		Cache cache = this.cache;
+		JWKEntry entry = cache == null ? null : (JWKEntry) cache.get(uri.toASCIIString());
+		if (entry != null && entry.getKeys() == null) {
+			JWKSnapshot current = snapshot.get();
+			JWKEntry previous = current == null ? null : current.getEntries().get(uri.toASCIIString());
+			// most of the time it is the document we already have, in that case we don't need to parse it again
+			if (previous != null && previous.getKeys() != null && previous.getContent() != null && Arrays.equals(previous.getContent(), entry.getContent())) {
+				entry.setKeys(previous.getKeys());
+				entry.setThumbprints(previous.getThumbprints());
+				entry.setIndex(previous.getIndex());
+			}
+			else {
+				parseJWK(uri, entry.getContent(), previous, entry);
+			}
+		}
+		return entry;
+	}
+	
+	// with a shared cache, only one node in the cluster fetches the document, the others wait for it to show up in the cache
+	private JWKEntry coordinatedFetch(URI uri, JWKEntry previous) throws IOException {
+		JWKRefreshCoordinator coordinator = refreshCoordinator;
+		if (coordinator == null) {
+			return fetchJWK(uri, previous);
+		}
+		String key = uri.toASCIIString();
+		// another node may have refreshed the document since we decided to refresh it
+		JWKEntry shared = adoptShared(uri);
+		if (shared != null) {
+			return shared;
+		}
+		if (coordinator.acquire(key, REFRESH_LEASE)) {
+			try {
+				// the lease is released as soon as a refresh is done, so check again now that we hold it
+				shared = adoptShared(uri);
+				return shared != null ? shared : fetchJWK(uri, previous);
+			}
+			finally {
+				coordinator.release(key);
+			}
+		}
+		getMetrics().increment(key, JWKMetrics.REFRESH_DELEGATED);
+		// if we still have usable keys, we keep using them and check back shortly instead of blocking the caller
+		if (previous != null && previous.getKeys() != null && !previous.getKeys().isEmpty()) {
+			scheduleRefresh(uri, DELEGATED_REFRESH_CHECK);
+			return previous;
+		}
+		long deadline = System.currentTimeMillis() + REFRESH_LEASE;
+		try {
+			while (started && System.currentTimeMillis() < deadline) {
+				Thread.sleep(250);
+				shared = adoptShared(uri);
+				if (shared != null) {
+					return shared;
 				}
 			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// the other node did not deliver in time, we fetch it ourselves
+		logger.warn("Timed out waiting for another node to refresh JWK url: " + uri);
+		return fetchJWK(uri, previous);
+	}
+	
+	// returns the entry in the shared cache if it is newer than the one we are currently using
+	private JWKEntry adoptShared(URI uri) throws IOException {
+		String key = uri.toASCIIString();
+		JWKSnapshot current = snapshot.get();
+		JWKEntry local = current == null ? null : current.getEntries().get(key);
+		JWKEntry entry = getCached(uri);
+		if (entry != null && isConfigured(uri) && entry.getExpires().after(new Date()) && (local == null || local.getExpires() == null || entry.getExpires().after(local.getExpires()))) {
+			persist(key, entry);
+			publish(key, entry);
+			scheduleRefresh(uri, entry);
+			return entry;
+		}
+		return null;
+	}
+	
+	private JWKEntry fetchJWK(URI uri, JWKEntry previous) throws IOException {
+		logger.info("Loading JWK uri: " + uri + " / " + previous);
 		
-			logger.info("Loading JWK uri: " + uri + " / " + entry);
-			
-			// we reparse it into a new entry
-			entry = new JWKEntry();
-			
-			ReadableContainer<ByteBuffer> readableContainer = null;
-			
-			// if you are using http (the default protocol), we can use the caching headers to reload the jwk at the optimal times to detect key rotation
-			Date expires = null;
-			try {
-				if ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) {
-					HTTPClient client = Services.getTransactionable(getRepository().newExecutionContext(SystemPrincipal.ROOT), null, getConfig().getHttpClient()).getClient();
-					
-					String path = uri.getPath();
-					if (uri.getQuery() != null) {
-						path += "?" + uri.getQuery();
-					}
-					if (uri.getFragment() != null) {
-						path += "#" + uri.getFragment();
+		String location = uri.toASCIIString();
+		JWKMetrics metrics = getMetrics();
+		metrics.increment(location, JWKMetrics.REFRESH);
+		long started = System.currentTimeMillis();
+		
+		// we reparse it into a new entry
+		JWKEntry entry = new JWKEntry();
+		
+		ReadableContainer<ByteBuffer> readableContainer = null;
+		
+		// if you are using http (the default protocol), we can use the caching headers to reload the jwk at the optimal times to detect key rotation
+		Date expires = null;
+		// whether the server confirmed that our previous keys are still valid
+		boolean notModified = false;
+		// whether we failed to get a usable document
+		boolean failed = false;
+		HTTPClient client = null;
+		try {
+			if ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) {
+				client = JWKExecutors.getClient(getRepository(), getConfig().getHttpClient());
+				
+				String path = uri.getPath();
+				if (uri.getQuery() != null) {
+					path += "?" + uri.getQuery();
+				}
+				if (uri.getFragment() != null) {
+					path += "#" + uri.getFragment();
+				}
+				
+				List<Header> requestHeaders = new ArrayList<Header>();
+				requestHeaders.add(new MimeHeader("Content-Length", "0"));
+				requestHeaders.add(new MimeHeader("Host", uri.getHost()));
+				// if we have working keys, we ask the server whether they have changed, if not we don't need to download and parse them again
+				if (previous != null && previous.getKeys() != null && !previous.getKeys().isEmpty()) {
+					if (previous.getEtag() != null) {
+						requestHeaders.add(new MimeHeader("If-None-Match", previous.getEtag()));
 					}
-					
-					DefaultHTTPRequest request = new DefaultHTTPRequest("GET", path, new PlainMimeEmptyPart(null, 
-							new MimeHeader("Content-Length", "0"),
-							new MimeHeader("Host", uri.getHost())));
-					HTTPResponse response = client.execute(request, null, "https".equalsIgnoreCase(uri.getScheme()), true);
-					
-					if (response.getCode() < 200 || response.getCode() >= 300) {
-						throw new IllegalStateException("The endpoint '" + uri + "' responded with: [" + response.getCode() + "] " + response.getMessage());
+					if (previous.getLastModified() != null) {
+						requestHeaders.add(new MimeHeader("If-Modified-Since", previous.getLastModified()));
 					}
-					
-					if (response.getContent() instanceof ContentPart) {
-						readableContainer = ((ContentPart) response.getContent()).getReadable();
+				}
+				DefaultHTTPRequest request = new DefaultHTTPRequest("GET", path, new PlainMimeEmptyPart(null, requestHeaders.toArray(new Header[requestHeaders.size()])));
+				HTTPResponse response = client.execute(request, null, "https".equalsIgnoreCase(uri.getScheme()), true);
+				
+				if (response.getCode() == 304 && previous != null && previous.getKeys() != null) {
+					logger.debug("JWK uri '" + uri + "' has not been modified");
+					metrics.increment(location, JWKMetrics.NOT_MODIFIED);
+					notModified = true;
+				}
+				else if (response.getCode() < 200 || response.getCode() >= 300) {
+					metrics.increment(location, JWKMetrics.FETCH_FAILURE_STATUS);
+					throw new IllegalStateException("The endpoint '" + uri + "' responded with: [" + response.getCode() + "] " + response.getMessage());
+				}
+				else if (response.getContent() instanceof ContentPart) {
+					readableContainer = ((ContentPart) response.getContent()).getReadable();
+				}
+				else {
+					throw new IllegalStateException("Could not find a response content on url: " + uri);
+				}
+				
+				Header[] responseHeaders = response.getContent() == null ? new Header[0] : response.getContent().getHeaders();
+				
+				Header etagHeader = MimeUtils.getHeader("ETag", responseHeaders);
+				Header lastModifiedHeader = MimeUtils.getHeader("Last-Modified", responseHeaders);
+				// a 304 may omit the validators, in that case the previous ones remain valid
+				entry.setEtag(etagHeader != null ? etagHeader.getValue() : (notModified ? previous.getEtag() : null));
+				entry.setLastModified(lastModifiedHeader != null ? lastModifiedHeader.getValue() : (notModified ? previous.getLastModified() : null));
+				
+				Header expiresHeader = MimeUtils.getHeader("Expires", responseHeaders);
+				if (expiresHeader != null) {
+					try {
+						logger.debug("parsing expires: " + expiresHeader.getValue());
+						expires = HTTPUtils.parseDate(expiresHeader.getValue());
 					}
-					else {
-						throw new IllegalStateException("Could not find a response content on url: " + uri);
+					catch (Exception e) {
+						logger.error("Could not parse expiry date from uri '" + uri + "': " + expiresHeader.getValue(), e);
 					}
-					
-					Header expiresHeader = MimeUtils.getHeader("Expires", response.getContent().getHeaders());
-					if (expiresHeader != null) {
+				}
+				if (expires == null) {
+					Header cacheControlHeader = MimeUtils.getHeader("Cache-Control", responseHeaders);
+					if (cacheControlHeader != null) {
 						try {
-							logger.info("parsing expires: " + expiresHeader.getValue());
-							expires = HTTPUtils.parseDate(expiresHeader.getValue());
-						}
-						catch (Exception e) {
-							logger.error("Could not parse expiry date from uri '" + uri + "': " + expiresHeader.getValue(), e);
-						}
-					}
-					if (expires == null) {
-						Header cacheControlHeader = MimeUtils.getHeader("Cache-Control", response.getContent().getHeaders());
-						if (cacheControlHeader != null) {
-							try {
-								String[] split = cacheControlHeader.getValue().split("[\\s]*,[\\s]*");
-								for (String part : split) {
-									if (part.startsWith("max-age")) {
-										String[] split2 = part.split("[\\s]*=[\\s]*");
-										if (split2.length == 2) {
-											// in seconds
-											long parsed = Long.parseLong(split2[1]);
-											logger.info("parsed max age: " + parsed);
-											expires = new Date(new Date().getTime() + (parsed * 1000));
-										}
+							String[] split = cacheControlHeader.getValue().split("[\\s]*,[\\s]*");
+							for (String part : split) {
+								if (part.startsWith("max-age")) {
+									String[] split2 = part.split("[\\s]*=[\\s]*");
+									if (split2.length == 2) {
+										// in seconds
+										long parsed = Long.parseLong(split2[1]);
+										logger.debug("parsed max age: " + parsed);
+										expires = new Date(new Date().getTime() + (parsed * 1000));
 									}
 								}
 							}
-							catch (Exception e) {
-								logger.error("Could not parse cache control header from uri '" + uri + "': " + cacheControlHeader.getValue(), e);
-							}
+						}
+						catch (Exception e) {
+							logger.error("Could not parse cache control header from uri '" + uri + "': " + cacheControlHeader.getValue(), e);
 						}
 					}
 				}
-				// you may want to load from file or the like
-				else {
-					readableContainer = ResourceUtils.toReadableContainer(uri, null);
-				}
 			}
-			catch (Exception e) {
-				logger.warn("Could not read JWK url: " + uri, e);
-			}
-			
-			// we don't want expires in the past, we allow minimal leeway for slow responses etc at _very_ inopportune times or system clock synchronization
-			// this still leaves a gap if a system would always respond with an expiry date max 1 min in the past, but that means the target system is doing very funky stuff
-			if (!getConfig().isAllowExpiryInPast() && expires != null && expires.before(new Date(new Date().getTime() - 1l*60*1000))) {
-				expires = null;
-			}
-			
-			if (expires == null) {
-				Duration minimumRefreshDuration = getConfig().getMinimumRefreshDuration();
-				expires = new Date(new Date().getTime() + (minimumRefreshDuration == null ? 1000l * 60 * 60 : 1000l * minimumRefreshDuration.toSeconds())); 
-			}
-			
-			entry.setExpires(expires);
-			Map<String, PublicKey> keyMap = new HashMap<String, PublicKey>();
-			entry.setKeys(keyMap);
-			
-			if (readableContainer != null) {
-				try {
-					JSONBinding binding = new JSONBinding(new MapTypeGenerator(true), Charset.forName("UTF-8"));
-					binding.setAllowDynamicElements(true);
-					binding.setAddDynamicElementDefinitions(true);
-					binding.setAllowRaw(true);
-					binding.setParseNumbers(true);
-					binding.setSetEmptyArrays(true);
-					MapContent content = (MapContent) binding.unmarshal(IOUtils.toInputStream(readableContainer), new Window[0]);
-					/*
-					 	{
-							"keys": [
-								{
-									"kty": "RSA",
-									"kid": "8OhRd2ceqZz44E6Rl7R1lqo9IzElbGywW5Qga3vSxM0",
-									"use": "sig",
-									"alg": "RS256",
-									"n": "uueHmN8oT5zQ4EKI0GnrYzDfmlJApxuadvZX2CWOFPmUXIpefaizXvrHwhpr6go7HR1hznk1PeMOzx6XVnzNlwBUMHy_YoCHggQstQI05cJCpx3oogXskDIathGmWxufIs_xJEkSkj1S6_-Va2oFr3-oMY-W5h_tXAMxna6Zpwk2dzHnaptMg1C1yU0Z1RuDiBq1F0Xa5IhiSD-dEgaLrKDyMlzMqj7pDZlDnO7zXmzAr6Von8rQCmAnSp1pX8_8VF39nwy2J9eBeysz_bzQ-e8dqv1cPprAF-tiMMYyjisZd8gBdtO9Wb68-VL87UhPBUyWG7PLkSiwvQatQhOnPr0s_HLXns9xhISShQGyJU0CWN4hho4-J41Oa78mthaBWSgkrlp-56_vOTTIk12N-Iu7-FCRSejhD1IlCtWTBcjFK1ih2pwLss9eDv0Dj95MkKr1eIIKlRn0H1AQ179OCb3Kl4yZFnAgyZipT2KCKm8YmA-jyaOF6Lo7IWWzXDWefGW7wtExPJFE3QvfLvOeJNHpGUCC2JoRDoMp6KssdI26C9UzELgSCXzG5u7wUaz009Gw9dlT1VlI9YxWqeWTuR-vJY-AOpf2ds2vc9G7wDhLNOfoJotqoESpDDAOKNNN0qH2sq-DwfUQdfRBrnmfoGFHD7uZanXQ_3zfE3OIWds",
-									"e": "AQAB"
-								},
-							]
-						}
-					 */
-					
-					List keys = (List) content.get("keys");
-					for (Object key : keys) {
-						if (key instanceof MapContent) {
-							// e.g. RSA, EC
-							// mandatory, case-sensitive
-							String keyType = (String) ((MapContent) key).get("kty");
+			// you may want to load from file or the like
+			else {
+				readableContainer = ResourceUtils.toReadableContainer(uri, null);
+			}
+		}
+		catch (Exception e) {
+			metrics.increment(location, JWKMetrics.FETCH_FAILURE);
+			logger.warn("Could not read JWK url: " + uri, e);
+			failed = true;
+			// a transport failure may leave the connection broken, don't reuse the client
+			// an error status or a missing body is a perfectly valid http exchange, there is no reason to throw away the pooled connections
+			if (client != null && e instanceof IOException) {
+				JWKExecutors.discardClient(getConfig().getHttpClient(), client);
+			}
+		}
 		
-							// optional, e.g. "sig" (for signatures) or "enc" (for encryption)
-							String usage = (String) ((MapContent) key).get("use");
-							
-							// optional, list of operations for which the key can be used, e.g. "sign", "verify", "encrypt", "decrypt", "wrapKey", "unwrapKey", "deriveKey", "deriveBits"
-							// key operations and usage "should not" be combined, if they _are_ combined, they must be consistent
-							List keyOperations = (List) ((MapContent) key).get("key_ops");
-							
-							// optional, case sensitive
-							String algorithm = (String) ((MapContent) key).get("alg");
+		// we don't want expires in the past, we allow minimal leeway for slow responses etc at _very_ inopportune times or system clock synchronization
+		// this still leaves a gap if a system would always respond with an expiry date max 1 min in the past, but that means the target system is doing very funky stuff
+		if (!getConfig().isAllowExpiryInPast() && expires != null && expires.before(new Date(new Date().getTime() - 1l*60*1000))) {
+			expires = null;
+		}
 		
-							// optional, can be used to match the kid in the jwt header
-							String keyId = (String) ((MapContent) key).get("kid");
-							
-							// a URL that can be used to resolve the chain which must be provided in pem format with specific delimiters for multiple (see spec)
-							String x509Url = (String) ((MapContent) key).get("x5u");
-							
-							// a chain of base64 encoded certs that provide the chain
-							List x509Chain = (List) ((MapContent) key).get("x5c");
-							
-							// sha-1 thumbprint, base64url encoded sha1 print of the der encoded x509 cert
-							String x509Thumbprint = (String) ((MapContent) key).get("x5t");
-							
-							// same but sha-256
-							String x509Thumbprint256 = (String) ((MapContent) key).get("x5t#S256");
-							
-							if (keyType.equalsIgnoreCase("RSA")) {
-								// for public key
-								String exponent = (String) ((MapContent) key).get("e");
-								String modulus = (String) ((MapContent) key).get("n");
-								
-								// for private key
-								String privateExponent = (String) ((MapContent) key).get("d");
-								String firstPrime = (String) ((MapContent) key).get("p");
-								String secondPrime = (String) ((MapContent) key).get("q");
-								String firstFactorCRTExponent = (String) ((MapContent) key).get("dp");
-								String secondFactorCRTExponent = (String) ((MapContent) key).get("dq");
-								String firstCRTCoefficient = (String) ((MapContent) key).get("qi");
-								
-							}
-							
-							PublicKey publicKey = BCSecurityUtils.createJWKPublicKey(((MapContent) key).getContent());
-							
-							// generate a random one
-							if (keyId == null) {
-								keyId = "generated:" + UUID.randomUUID().toString().replace("-", "");
-							}
-							keyMap.put(keyId, publicKey);
-						}
-					}
+		if (expires == null) {
+			Duration minimumRefreshDuration = getConfig().getMinimumRefreshDuration();
+			expires = new Date(new Date().getTime() + (minimumRefreshDuration == null ? 1000l * 60 * 60 : 1000l * minimumRefreshDuration.toSeconds())); 
+		}
+		
+		entry.setExpires(expires);
+		
+		if (notModified) {
+			entry.setKeys(previous.getKeys());
+			entry.setThumbprints(previous.getThumbprints());
+			entry.setIndex(previous.getIndex());
+			entry.setContent(previous.getContent());
+		}
+		else {
+			byte[] content = null;
+			if (readableContainer != null) {
+				try {
+					content = JWKSParser.read(IOUtils.toInputStream(readableContainer), getMaximumDocumentSize());
 				}
 				catch (Exception e) {
-					logger.warn("Could not parse JWK JSON", e);
+					metrics.increment(location, JWKMetrics.FETCH_FAILURE);
+					logger.warn("Could not read JWK url: " + uri, e);
+					// the response was not (fully) consumed, the connection can not be reused
+					if (client != null && e instanceof IOException) {
+						JWKExecutors.discardClient(getConfig().getHttpClient(), client);
+					}
 				}
 				finally {
 					try {
@@ -312,55 +859,601 @@ public class JWKArtifact extends JAXBArtifact<JWKConfiguration> implements Start
 					}
 				}
 			}
-			
+			failed |= !parseJWK(uri, content, previous, entry);
+		}
+		
+		// the uri may have been removed while we were fetching it, in that case we should not store anything for it
+		if (!isConfigured(uri)) {
+			return entry;
+		}
+		
+		if (failed) {
+			long backoff = registerRefreshFailure(location);
+			// a failed refresh should not throw away keys that worked, we keep using them until a refresh succeeds
+			if (previous != null && previous.getKeys() != null && !previous.getKeys().isEmpty()) {
+				logger.warn("Keeping the last known good keys for JWK url: " + uri);
+				metrics.increment(location, JWKMetrics.RETAINED);
+				entry.setKeys(previous.getKeys());
+				entry.setThumbprints(previous.getThumbprints());
+				entry.setIndex(previous.getIndex());
+				entry.setContent(previous.getContent());
+				entry.setEtag(previous.getEtag());
+				entry.setLastModified(previous.getLastModified());
+			}
+			// we retry after the backoff, not after the regular expiry
+			entry.setExpires(new Date(System.currentTimeMillis() + backoff));
+		}
+		else {
+			refreshFailures.remove(location);
+			retryAfter.remove(location);
+			metrics.set(location, JWKMetrics.CONSECUTIVE_FAILURES, 0);
+		}
+		
+		if (cache != null) {
+			logger.debug("storing jwk using key: " + uri.toASCIIString());
+			cache.put(uri.toASCIIString(), entry);
+		}
+		if (!failed) {
+			persist(location, entry);
+		}
+		metrics.set(location, JWKMetrics.KEY_COUNT, entry.getKeys().size());
+		metrics.time(location, JWKMetrics.REFRESH_TIME, System.currentTimeMillis() - started);
+		publish(uri.toASCIIString(), entry);
+		scheduleRefresh(uri, entry);
+		
+		return entry;
+	}
+
+	// parses the content into keys, if we already built a key in the previous entry we reuse it
+	// returns false if the document could not be used
+	@SuppressWarnings({ "unused", "rawtypes" })
+	private boolean parseJWK(URI uri, byte[] content, JWKEntry previous, JWKEntry entry) {
+		String location = uri.toASCIIString();
+		JWKMetrics metrics = getMetrics();
+		Map<String, PublicKey> keyMap = new HashMap<String, PublicKey>();
+		entry.setKeys(keyMap);
+		Map<String, String> thumbprints = new HashMap<String, String>();
+		entry.setThumbprints(thumbprints);
+		Map<String, JWKKey> index = new HashMap<String, JWKKey>();
+		entry.setIndex(index);
+		
+		// the keys we already built in a previous load, by thumbprint
+		Map<String, PublicKey> previousKeys = new HashMap<String, PublicKey>();
+		if (previous != null && previous.getKeys() != null && previous.getThumbprints() != null) {
+			for (Map.Entry<String, String> thumbprint : previous.getThumbprints().entrySet()) {
+				PublicKey previousKey = previous.getKeys().get(thumbprint.getKey());
+				if (previousKey != null) {
+					previousKeys.put(thumbprint.getValue(), previousKey);
+				}
+			}
+		}
+		
+		if (content == null) {
+			return false;
+		}
+		List<Map<String, Object>> keys;
+		try {
+			/*
+			 	{
+					"keys": [
+						{
+							"kty": "RSA",
+							"kid": "8OhRd2ceqZz44E6Rl7R1lqo9IzElbGywW5Qga3vSxM0",
+							"use": "sig",
+							"alg": "RS256",
+							"n": "uueHmN8oT5zQ4EKI0GnrYzDfmlJApxuadvZX2CWOFPmUXIpefaizXvrHwhpr6go7HR1hznk1PeMOzx6XVnzNlwBUMHy_YoCHggQstQI05cJCpx3oogXskDIathGmWxufIs_xJEkSkj1S6_-Va2oFr3-oMY-W5h_tXAMxna6Zpwk2dzHnaptMg1C1yU0Z1RuDiBq1F0Xa5IhiSD-dEgaLrKDyMlzMqj7pDZlDnO7zXmzAr6Von8rQCmAnSp1pX8_8VF39nwy2J9eBeysz_bzQ-e8dqv1cPprAF-tiMMYyjisZd8gBdtO9Wb68-VL87UhPBUyWG7PLkSiwvQatQhOnPr0s_HLXns9xhISShQGyJU0CWN4hho4-J41Oa78mthaBWSgkrlp-56_vOTTIk12N-Iu7-FCRSejhD1IlCtWTBcjFK1ih2pwLss9eDv0Dj95MkKr1eIIKlRn0H1AQ179OCb3Kl4yZFnAgyZipT2KCKm8YmA-jyaOF6Lo7IWWzXDWefGW7wtExPJFE3QvfLvOeJNHpGUCC2JoRDoMp6KssdI26C9UzELgSCXzG5u7wUaz009Gw9dlT1VlI9YxWqeWTuR-vJY-AOpf2ds2vc9G7wDhLNOfoJotqoESpDDAOKNNN0qH2sq-DwfUQdfRBrnmfoGFHD7uZanXQ_3zfE3OIWds",
+							"e": "AQAB"
+						},
+					]
+				}
+			 */
+			keys = JWKSParser.parseKeys(content);
+		}
+		catch (Exception e) {
+			metrics.increment(location, JWKMetrics.PARSE_FAILURE);
+			logger.warn("Could not parse JWK JSON", e);
+			return false;
+		}
+		entry.setContent(content);
+		for (Map<String, Object> key : keys) {
+			// a single broken key should not prevent us from using the others
+			try {
+				// e.g. RSA, EC
+				// mandatory, case-sensitive
+				String keyType = (String) key.get("kty");
+				
+				// optional, e.g. "sig" (for signatures) or "enc" (for encryption)
+				String usage = (String) key.get("use");
+				
+				// optional, list of operations for which the key can be used, e.g. "sign", "verify", "encrypt", "decrypt", "wrapKey", "unwrapKey", "deriveKey", "deriveBits"
+				// key operations and usage "should not" be combined, if they _are_ combined, they must be consistent
+				List keyOperations = (List) key.get("key_ops");
+				
+				// optional, case sensitive
+				String algorithm = (String) key.get("alg");
+				
+				// optional, can be used to match the kid in the jwt header
+				String keyId = (String) key.get("kid");
+				
+				// a URL that can be used to resolve the chain which must be provided in pem format with specific delimiters for multiple (see spec)
+				String x509Url = (String) key.get("x5u");
+				
+				// a chain of base64 encoded certs that provide the chain
+				List x509Chain = (List) key.get("x5c");
+				
+				// sha-1 thumbprint, base64url encoded sha1 print of the der encoded x509 cert
+				String x509Thumbprint = (String) key.get("x5t");
+				
+				// same but sha-256
+				String x509Thumbprint256 = (String) key.get("x5t#S256");
+				
+				if (keyType == null) {
+					throw new IllegalArgumentException("Missing key type");
+				}
+				else if (keyType.equalsIgnoreCase("RSA")) {
+					// for public key
+					String exponent = (String) key.get("e");
+					String modulus = (String) key.get("n");
+					
+					// for private key
+					String privateExponent = (String) key.get("d");
+					String firstPrime = (String) key.get("p");
+					String secondPrime = (String) key.get("q");
+					String firstFactorCRTExponent = (String) key.get("dp");
+					String secondFactorCRTExponent = (String) key.get("dq");
+					String firstCRTCoefficient = (String) key.get("qi");
+				}
+				
+				// if the key has not changed since the previous load, we reuse the key we already built
+				String thumbprint = JWKUtils.thumbprint(key);
+				PublicKey publicKey = thumbprint == null ? null : previousKeys.get(thumbprint);
+				if (publicKey == null) {
+					publicKey = BCSecurityUtils.createJWKPublicKey(key);
+				}
+				
+				// the thumbprint is a stable identifier for the key (it is suggested as a key id by the spec), if we can't calculate one we fall back to a random one
+				if (keyId == null) {
+					keyId = thumbprint == null ? "generated:" + UUID.randomUUID().toString().replace("-", "") : thumbprint;
+				}
+				keyMap.put(keyId, publicKey);
+				if (thumbprint != null) {
+					thumbprints.put(keyId, thumbprint);
+				}
+				JWKKey indexed = new JWKKey();
+				indexed.setKeyId(keyId);
+				indexed.setThumbprint(thumbprint);
+				indexed.setKeyType(keyType);
+				indexed.setAlgorithm(algorithm);
+				indexed.setUsage(usage);
+				indexed.setX509Thumbprint(x509Thumbprint);
+				indexed.setX509Thumbprint256(x509Thumbprint256);
+				if (keyOperations != null) {
+					List<String> operations = new ArrayList<String>();
+					for (Object operation : keyOperations) {
+						if (operation instanceof String) {
+							operations.add((String) operation);
+						}
+					}
+					indexed.setKeyOperations(operations);
+				}
+				indexed.setKey(publicKey);
+				index.put(keyId, indexed);
+			}
+			catch (Exception e) {
+				metrics.increment(location, JWKMetrics.KEY_FAILURE);
+				logger.warn("Could not parse JWK key " + key.get("kid") + " from: " + uri, e);
+			}
+		}
+		// if none of the keys in the document could be built, something is wrong
+		if (!keys.isEmpty() && keyMap.isEmpty()) {
+			return false;
+		}
+		// an endpoint that suddenly publishes no keys at all is more likely broken than actually revoking everything, we keep the keys we had
+		else if (keys.isEmpty() && previous != null && previous.getKeys() != null && !previous.getKeys().isEmpty()) {
+			logger.warn("The JWK document at " + uri + " no longer contains any keys, keeping the previous keys");
+			return false;
+		}
+		return true;
+	}
+	
+	// if enabled, every uri is refreshed in the background shortly before it expires, the jitter makes sure not all entries (or all servers) refresh at the same time
+	// this runs on the shared scheduler so it scales to a large amount of (dynamic) artifacts
+	private void scheduleRefresh(final URI uri, JWKEntry entry) {
+		if (!started || (!getConfig().isStaleWhileRevalidate() && !pollPeriodically)) {
+			return;
+		}
+		String key = uri.toASCIIString();
+		long delay;
+		Integer failures = refreshFailures.get(key);
+		Long retry = retryAfter.get(key);
+		// if the last refresh failed, we retry after the backoff
+		if (failures != null && failures > 0 && retry != null) {
+			delay = Math.max(0, retry - System.currentTimeMillis());
+		}
+		// without an expiry we fall back to a fixed interval
+		else if (entry == null || entry.getExpires() == null) {
+			delay = (long) (DEFAULT_REFRESH_INTERVAL * (0.9 + (0.1 * ThreadLocalRandom.current().nextDouble())));
+		}
+		else {
+			long lifetime = entry.getExpires().getTime() - System.currentTimeMillis();
+			// refresh somewhere between 80% and 90% of the lifetime, if it has already expired we refresh immediately
+			delay = lifetime <= 0 ? 0 : (long) (lifetime * (0.8 + (0.1 * ThreadLocalRandom.current().nextDouble())));
+		}
+		scheduleRefresh(uri, delay);
+	}
+	
+	private void scheduleRefresh(final URI uri, long delay) {
+		if (!started) {
+			return;
+		}
+		final String key = uri.toASCIIString();
+		synchronized(refreshes) {
+			ScheduledFuture<?> scheduled = refreshes.get(key);
+			if (scheduled != null && !scheduled.isDone()) {
+				// a refresh that is already planned sooner (or running) covers this one
+				if (scheduled.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+					return;
+				}
+				// otherwise we move it forward, e.g. to check for a refresh done by another node instead of waiting for the regular refresh
+				scheduled.cancel(false);
+			}
+			refreshes.put(key, JWKExecutors.getScheduler(getRepository()).schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized(refreshes) {
+						refreshes.remove(key);
+					}
+					List<URI> uris = getConfig().getUris();
+					// the uri may have been removed from the configuration in the meantime
+					// the scheduler only triggers the refresh, the actual fetch runs on the shared loader so a slow endpoint does not hold up the other refreshes
+					if (started && uris != null && uris.contains(uri)) {
+						loadJWKAsync(uri, true).exceptionally(new Function<Throwable, JWKEntry>() {
+							@Override
+							public JWKEntry apply(Throwable t) {
+								logger.warn("Could not refresh JWK url: " + uri, t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+								registerRefreshFailure(key);
+								// the load did not get to reschedule itself
+								scheduleRefresh(uri, null);
+								return null;
+							}
+						});
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS));
+		}
+	}
+	
+	// registers a failed refresh and returns how long we should wait before trying again
+	// we back off exponentially, the jitter is between 50% and 100% of the backoff so not all nodes retry at the same time
+	private long registerRefreshFailure(String key) {
+		Integer failures = refreshFailures.get(key);
+		failures = failures == null ? 1 : failures + 1;
+		refreshFailures.put(key, failures);
+		long backoff = Math.min(MAXIMUM_BACKOFF, MINIMUM_BACKOFF << Math.min(failures - 1, 16));
+		backoff = (long) (backoff * (0.5 + (0.5 * ThreadLocalRandom.current().nextDouble())));
+		retryAfter.put(key, System.currentTimeMillis() + backoff);
+		getMetrics().set(key, JWKMetrics.CONSECUTIVE_FAILURES, failures);
+		if (failures == CIRCUIT_THRESHOLD) {
+			logger.error("JWK url '" + key + "' failed " + failures + " times in a row, only retrying after the backoff");
+		}
+		return backoff;
+	}
+	
+	// after too many consecutive failures we stop forced reloads (e.g. for unknown key ids) from hitting the endpoint until the backoff has passed
+	private boolean isCircuitOpen(String key) {
+		Integer failures = refreshFailures.get(key);
+		Long retry = retryAfter.get(key);
+		return failures != null && failures >= CIRCUIT_THRESHOLD && retry != null && retry > System.currentTimeMillis();
+	}
+	
+	/**
+	 * The uris whose last refresh failed, we are still serving their last known good keys (if any)
+	 */
+	public List<String> getDegradedUris() {
+		return new ArrayList<String>(refreshFailures.keySet());
+	}
+	
+	public boolean isDegraded() {
+		return !refreshFailures.isEmpty();
+	}
+	
+	/**
+	 * Updates the configured uris without losing the entries of the uris that remain. New uris are loaded in the background, removed uris are evicted immediately.
+	 */
+	public void updateUris(List<URI> uris) {
+		List<URI> previous = getConfig().getUris();
+		List<URI> updated = uris == null ? new ArrayList<URI>() : new ArrayList<URI>(uris);
+		getConfig().setUris(updated);
+		if (!started) {
+			return;
+		}
+		if (previous != null) {
+			for (URI uri : previous) {
+				if (uri != null && !updated.contains(uri)) {
+					evict(uri);
+				}
+			}
+		}
+		// the snapshot keeps serving the remaining uris, the new ones are added when they are loaded
+		while (true) {
+			JWKSnapshot current = snapshot.get();
+			if (current == null || snapshot.compareAndSet(current, current.withUris(updated))) {
+				break;
+			}
+		}
+		for (final URI uri : updated) {
+			if (uri != null && (previous == null || !previous.contains(uri))) {
+				loadJWKAsync(uri, false).exceptionally(new Function<Throwable, JWKEntry>() {
+					@Override
+					public JWKEntry apply(Throwable t) {
+						logger.warn("Could not load JWK: " + uri, t);
+						return null;
+					}
+				});
+			}
+		}
+	}
+	
+	/**
+	 * Updates the issuers this artifact is routed for
+	 */
+	public void updateIssuers(List<String> issuers) {
+		getConfig().setIssuers(issuers);
+		if (started) {
+			JWKIssuers.register(this);
+		}
+	}
+	
+	private boolean isConfigured(URI uri) {
+		List<URI> uris = getConfig().getUris();
+		return uris != null && uris.contains(uri);
+	}
+	
+	private void evict(final URI uri) {
+		String key = uri.toASCIIString();
+		// a load that is still running may store its result after we evicted, so we evict again once it is done
+		CompletableFuture<JWKEntry> running = loading.get(key);
+		if (running != null && !running.isDone()) {
+			running.whenComplete(new BiConsumer<JWKEntry, Throwable>() {
+				@Override
+				public void accept(JWKEntry entry, Throwable t) {
+					if (!isConfigured(uri)) {
+						evict(uri);
+					}
+				}
+			});
+		}
+		synchronized(refreshes) {
+			ScheduledFuture<?> scheduled = refreshes.remove(key);
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+		}
+		refreshFailures.remove(key);
+		retryAfter.remove(key);
+		try {
+			Cache cache = this.cache;
 			if (cache != null) {
-				logger.info("storing jwk using key: " + uri.toASCIIString());
-				cache.put(uri.toASCIIString(), entry);
+				cache.clear(key);
 			}
-			
-			return entry;
+		}
+		catch (IOException e) {
+			logger.warn("Could not evict JWK: " + uri, e);
+		}
+		JWKDiskStore store = getDiskStore();
+		if (store != null) {
+			store.remove(getId(), key);
+		}
+		getMetrics().remove(key);
+	}
+	
+	private void cancelRefreshes() {
+		synchronized(refreshes) {
+			for (ScheduledFuture<?> scheduled : refreshes.values()) {
+				scheduled.cancel(false);
+			}
+			refreshes.clear();
 		}
 	}
+	
+	private long getMaximumDocumentSize() {
+		Integer maximumDocumentSize = getConfig().getMaximumDocumentSize();
+		return maximumDocumentSize == null ? 1024l * 1024 * 5 : maximumDocumentSize;
+	}
+	
+	private long getMaximumStaleness() {
+		Duration maximumStaleness = getConfig().getMaximumStaleness();
+		return maximumStaleness == null ? 1000l * 60 * 60 : 1000l * maximumStaleness.toSeconds();
+	}
 
-	private boolean started;
+	private JWKDiskStore getDiskStore() {
+		URI directory = getConfig().getPersistenceDirectory();
+		if (directory == null) {
+			return null;
+		}
+		return new JWKDiskStore(directory.getScheme() == null ? new File(directory.getPath()) : new File(directory));
+	}
+	
+	// write the last known good document to disk, we only do this if it actually contains usable keys
+	private void persist(String uri, JWKEntry entry) {
+		JWKDiskStore store = getDiskStore();
+		if (store != null && entry.getContent() != null && !entry.getKeys().isEmpty()) {
+			try {
+				store.store(getId(), uri, entry);
+			}
+			catch (Exception e) {
+				logger.warn("Could not persist JWK for: " + uri, e);
+			}
+		}
+	}
+	
+	// restores the persisted documents into the cache, returns the uris that were restored so they can be refreshed in the background
+	private List<URI> restore() {
+		List<URI> restored = new ArrayList<URI>();
+		JWKDiskStore store = getDiskStore();
+		if (store == null || getConfig().getUris() == null) {
+			return restored;
+		}
+		for (URI uri : getConfig().getUris()) {
+			if (uri == null) {
+				continue;
+			}
+			String location = uri.toASCIIString();
+			try {
+				// a shared cache might already have a more recent entry
+				if (cache.get(location) != null) {
+					continue;
+				}
+				JWKEntry entry = store.load(getId(), location);
+				if (entry == null) {
+					continue;
+				}
+				parseJWK(uri, entry.getContent(), null, entry);
+				if (entry.getKeys().isEmpty()) {
+					continue;
+				}
+				// the persisted document may have expired while we were down, we still serve it until the background refresh replaces it
+				long minimum = System.currentTimeMillis() + 60000l;
+				if (entry.getExpires() == null || entry.getExpires().getTime() < minimum) {
+					entry.setExpires(new Date(minimum));
+				}
+				cache.put(location, entry);
+				restored.add(uri);
+				logger.info("Restored " + entry.getKeys().size() + " persisted JWK(s) for: " + location);
+			}
+			catch (Exception e) {
+				logger.warn("Could not restore persisted JWK for: " + location, e);
+			}
+		}
+		return restored;
+	}
+	
+	private volatile boolean started;
 	
 	@Override
 	public void start() throws IOException {
 		started = true;
 		AccessBasedTimeoutManager timeoutManager = new AccessBasedTimeoutManager(30l*24*60*60*1000);
 
-		if (getConfiguration().getCacheProvider() != null) {
-			cache = getConfiguration().getCacheProvider().create(getId(), 0, 0, new StringSerializer(), new SerializableSerializer(), null, timeoutManager);		
+		if (pluggedCache != null) {
+			cache = pluggedCache;
+		}
+		else if (getConfiguration().getCacheProvider() != null) {
+			cache = getConfiguration().getCacheProvider().create(getId(), 0, 0, new StringSerializer(), new JWKEntrySerializer(), null, timeoutManager);
+			if (refreshCoordinator == null) {
+				refreshCoordinator = new CacheRefreshCoordinator(getConfiguration().getCacheProvider().create(getId() + "-lease", 0, 0, new StringSerializer(), new StringSerializer(), null, new AccessBasedTimeoutManager(REFRESH_LEASE)));
+			}
 		}
 		else {
 			cache = new MemoryCache(null, timeoutManager);
 		}
-
-		// need the correct context for deserializing
-		RepositoryThreadFactory repositoryThreadFactory = new RepositoryThreadFactory(getRepository());
-		thread = repositoryThreadFactory.newThread(new Runnable() {
+		
+		final List<URI> restored = restore();
+		warmup = warmup(restored);
+		JWKWarmup.register(this);
+		JWKIssuers.register(this);
+	}
+	
+	// loads all the uris in parallel on the shared loader, the restored documents are already usable but we want the current version as soon as possible
+	private CompletableFuture<Void> warmup(final List<URI> restored) {
+		List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+		if (getConfig().getUris() != null) {
+			for (final URI uri : getConfig().getUris()) {
+				if (uri != null) {
+					futures.add(loadJWKAsync(uri, restored.contains(uri)).exceptionally(new Function<Throwable, JWKEntry>() {
+						@Override
+						public JWKEntry apply(Throwable t) {
+							logger.warn("Could not load JWK: " + uri, t);
+							return null;
+						}
+					}));
+				}
+			}
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).thenRun(new Runnable() {
 			@Override
 			public void run() {
-				while (started) {
-					getKeyMap();
-					if (pollPeriodically) {
-						try {
-							Thread.sleep(30*60*1000l);
-						}
-						catch (InterruptedException e) {
-							// continue
-						}
-					}
-					else {
-						break;
-					}
+				if (started) {
+					getSnapshot();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Loads the uri on the shared loader instead of the calling thread. If the uri is already being loaded, the running load is returned.
+	 */
+	public CompletableFuture<JWKEntry> loadJWKAsync(final URI uri, final boolean force) {
+		CompletableFuture<JWKEntry> running = loading.get(uri.toASCIIString());
+		// we hand out a dependent stage, if the caller completes or cancels it, the shared load is not affected
+		if (running != null) {
+			return running.thenApply(new Function<JWKEntry, JWKEntry>() {
+				@Override
+				public JWKEntry apply(JWKEntry entry) {
+					return entry;
+				}
+			});
+		}
+		return CompletableFuture.supplyAsync(new Supplier<JWKEntry>() {
+			@Override
+			public JWKEntry get() {
+				try {
+					return loadJWK(uri, force);
+				}
+				catch (IOException e) {
+					throw new CompletionException(e);
 				}
-				thread = null;
+			}
+		}, JWKExecutors.getLoader(getRepository()));
+	}
+	
+	/**
+	 * Returns the current snapshot if it is still valid, otherwise all the uris are loaded concurrently on the shared loader
+	 */
+	public CompletableFuture<JWKSnapshot> getSnapshotAsync() {
+		JWKSnapshot current = snapshot.get();
+		List<URI> uris = getConfig().getUris();
+		if (current != null && current.getUris() == uris && !current.isExpired(System.currentTimeMillis())) {
+			return CompletableFuture.completedFuture(current);
+		}
+		List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+		if (uris != null) {
+			for (URI uri : uris) {
+				if (uri != null) {
+					futures.add(loadJWKAsync(uri, false));
+				}
+			}
+		}
+		// the snapshot is built from the loaded (cached) entries, a failing uri is logged but does not prevent the others from being used
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).handle(new BiFunction<Void, Throwable, JWKSnapshot>() {
+			@Override
+			public JWKSnapshot apply(Void result, Throwable t) {
+				return getSnapshot();
 			}
 		});
-		thread.setDaemon(true);
-		thread.setName("jwk-loader-" + getId());
-		thread.start();
+	}
+	
+	public JWKRefreshCoordinator getRefreshCoordinator() {
+		return refreshCoordinator;
+	}
+	// allows plugging in a different coordinator, for example a local one for testing
+	public void setRefreshCoordinator(JWKRefreshCoordinator refreshCoordinator) {
+		this.refreshCoordinator = refreshCoordinator;
+	}
+	
+	// allows plugging in a cache, for example to share one between artifacts that act as the nodes of a cluster in a test, it is picked up when the artifact starts
+	public void setCache(Cache cache) {
+		this.pluggedCache = cache;
+	}
+	
+	public Future<?> getWarmup() {
+		return warmup;
+	}
+	
+	// whether we currently have keys, this does not trigger a load
+	boolean hasKeys() {
+		JWKSnapshot current = snapshot.get();
+		return current != null && !current.getKeys().isEmpty();
 	}
 
 	@Override
@@ -371,7 +1464,18 @@ public class JWKArtifact extends JAXBArtifact<JWKConfiguration> implements Start
 	@Override
 	public void stop() throws IOException {
 		started = false;
+		JWKWarmup.unregister(this);
+		JWKIssuers.unregister(this);
+		warmup = null;
+		cancelRefreshes();
+		refreshFailures.clear();
+		retryAfter.clear();
 		cache = null;
+		if (refreshCoordinator instanceof CacheRefreshCoordinator) {
+			refreshCoordinator = null;
+		}
+		snapshot.set(null);
+		tokenCache = null;
 	}
 
 	@Override
@@ -379,6 +1483,12 @@ public class JWKArtifact extends JAXBArtifact<JWKConfiguration> implements Start
 		if (cache != null) {
 			cache.clear();
 		}
+		cancelRefreshes();
+		refreshFailures.clear();
+		retryAfter.clear();
+		snapshot.set(null);
+		unknownKeyIds.clear();
+		tokenCache = null;
 	}
 
 }
@@ -44,6 +44,31 @@ public class JWKConfiguration {
 	// if the expiry date is in the past and stays there, it would open the door for DOS, we don't want that
 	// by default it is not allowed and it will fall back to the minimum refresh duration
 	private boolean allowExpiryInPast;
+	// when an entry expires, keep serving it while it is being refreshed in the background
+	private boolean staleWhileRevalidate;
+	// how long an expired entry can be served at most, after that callers wait for the refresh
+	private Duration maximumStaleness;
+	// when a token comes in with an unknown key id, we reload the keys but at most once per interval
+	private Duration unknownKeyRefreshInterval;
+	// we can cache verified tokens so reused tokens don't need to be verified again
+	private Integer tokenCacheSize;
+	private Duration tokenCacheDuration;
+	
+	// the maximum size of a jwks document in bytes, defaults to 5mb
+	private Integer maximumDocumentSize;
+	
+	// the jws algorithms we accept and the maximum size of a token
+	private List<String> allowedAlgorithms;
+	private Integer maximumTokenSize;
+	
+	// the issuers of the tokens that are verified with these keys
+	private List<String> issuers;
+	
+	// whether we publish the merged keys as a jwks document
+	private boolean publish;
+	
+	// where the last known good documents are persisted
+	private URI persistenceDirectory;
 	
 	public List<URI> getUris() {
 		return uris;
@@ -83,4 +108,104 @@ public class JWKConfiguration {
 		this.allowExpiryInPast = allowExpiryInPast;
 	}
 	
+	@Field(comment = "If enabled, the keys are refreshed in the background shortly before they expire and expired keys are still served while the refresh is ongoing.")
+	@Advanced
+	public boolean isStaleWhileRevalidate() {
+		return staleWhileRevalidate;
+	}
+	public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+		this.staleWhileRevalidate = staleWhileRevalidate;
+	}
+	
+	@Field(comment = "How long expired keys can be served at most while waiting for a background refresh. If left empty, this defaults to 1 hour.")
+	@Advanced
+	public Duration getMaximumStaleness() {
+		return maximumStaleness;
+	}
+	public void setMaximumStaleness(Duration maximumStaleness) {
+		this.maximumStaleness = maximumStaleness;
+	}
+	
+	@Field(comment = "When a token refers to a key id we don't know, the keys are reloaded to pick up key rotation. This is done at most once per interval and unknown key ids are remembered for the same duration. If left empty, this defaults to 1 minute.")
+	@Advanced
+	public Duration getUnknownKeyRefreshInterval() {
+		return unknownKeyRefreshInterval;
+	}
+	public void setUnknownKeyRefreshInterval(Duration unknownKeyRefreshInterval) {
+		this.unknownKeyRefreshInterval = unknownKeyRefreshInterval;
+	}
+	
+	@Field(comment = "The maximum size (in bytes) of the JWKS document we accept. If left empty, this defaults to 5mb.")
+	@Advanced
+	public Integer getMaximumDocumentSize() {
+		return maximumDocumentSize;
+	}
+	public void setMaximumDocumentSize(Integer maximumDocumentSize) {
+		this.maximumDocumentSize = maximumDocumentSize;
+	}
+	
+	@Field(comment = "The maximum amount of verified tokens that are cached. Tokens that are used repeatedly are then only verified once. If left empty, no tokens are cached.")
+	@Advanced
+	public Integer getTokenCacheSize() {
+		return tokenCacheSize;
+	}
+	public void setTokenCacheSize(Integer tokenCacheSize) {
+		this.tokenCacheSize = tokenCacheSize;
+	}
+	
+	@Field(comment = "How long a verified token is cached at most, it is never cached beyond its own expiry. If left empty, this defaults to 5 minutes.")
+	@Advanced
+	public Duration getTokenCacheDuration() {
+		return tokenCacheDuration;
+	}
+	public void setTokenCacheDuration(Duration tokenCacheDuration) {
+		this.tokenCacheDuration = tokenCacheDuration;
+	}
+	
+	@Field(comment = "If set, the last known good JWKS documents are persisted in this directory. At startup they are restored so tokens can be verified immediately while the documents are refreshed in the background.")
+	@Advanced
+	@EnvironmentSpecific
+	public URI getPersistenceDirectory() {
+		return persistenceDirectory;
+	}
+	public void setPersistenceDirectory(URI persistenceDirectory) {
+		this.persistenceDirectory = persistenceDirectory;
+	}
+	
+	@Field(comment = "If enabled, the merged public keys can be retrieved as a JWKS document so internal consumers can use this server instead of the upstream identity provider.")
+	@Advanced
+	public boolean isPublish() {
+		return publish;
+	}
+	public void setPublish(boolean publish) {
+		this.publish = publish;
+	}
+	
+	@Field(comment = "The issuers (the iss claim) of the tokens that are signed with these keys. This allows tokens to be routed to this JWK without knowing its id.")
+	@Advanced
+	public List<String> getIssuers() {
+		return issuers;
+	}
+	public void setIssuers(List<String> issuers) {
+		this.issuers = issuers;
+	}
+	
+	@Field(comment = "The signature algorithms (the alg header) that are accepted. If left empty, the RSA, RSA-PSS, ECDSA and EdDSA algorithms are accepted. Unsigned tokens are never accepted.")
+	@Advanced
+	public List<String> getAllowedAlgorithms() {
+		return allowedAlgorithms;
+	}
+	public void setAllowedAlgorithms(List<String> allowedAlgorithms) {
+		this.allowedAlgorithms = allowedAlgorithms;
+	}
+	
+	@Field(comment = "The maximum size (in characters) of a token, larger tokens are rejected before they are decoded. If left empty, this defaults to 16kb.")
+	@Advanced
+	public Integer getMaximumTokenSize() {
+		return maximumTokenSize;
+	}
+	public void setMaximumTokenSize(Integer maximumTokenSize) {
+		this.maximumTokenSize = maximumTokenSize;
+	}
+	
 }
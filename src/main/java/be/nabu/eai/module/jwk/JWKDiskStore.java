@@ -0,0 +1,110 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Stores the last known good jwks document per uri on the local disk so it is available immediately after a restart
+ */
+public class JWKDiskStore {
+
+	private File directory;
+
+	public JWKDiskStore(File directory) {
+		this.directory = directory;
+	}
+
+	public void store(String artifactId, String uri, JWKEntry entry) throws IOException {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory: " + directory);
+		}
+		File target = getFile(artifactId, uri);
+		// we write to a temporary file first and move it in place, this way a crash never leaves a partial file
+		File temporary = File.createTempFile(target.getName(), ".tmp", directory);
+		try {
+			OutputStream output = new BufferedOutputStream(new FileOutputStream(temporary));
+			try {
+				JWKEntryCodec.write(entry, output);
+			}
+			finally {
+				output.close();
+			}
+			try {
+				Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			if (temporary.exists()) {
+				temporary.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the stored entry (without built keys) or null if there is none
+	 */
+	public JWKEntry load(String artifactId, String uri) throws IOException {
+		File file = getFile(artifactId, uri);
+		if (!file.exists()) {
+			return null;
+		}
+		InputStream input = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return JWKEntryCodec.read(input);
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	public void remove(String artifactId, String uri) {
+		File file = getFile(artifactId, uri);
+		if (file.exists()) {
+			file.delete();
+		}
+	}
+
+	// the uri can contain all sorts of characters that are not allowed in a file name so we hash it
+	private File getFile(String artifactId, String uri) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest((artifactId + "|" + uri).getBytes(Charset.forName("UTF-8")));
+			return new File(directory, Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + ".jwk");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.net.URI;
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+
+import be.nabu.libs.types.base.Duration;
+
+/**
+ * The configuration of a single dynamic jwk collection, used to register many collections at once
+ */
+public class JWKDynamicConfiguration {
+	
+	private String collection, cacheId, httpClientId;
+	private Boolean allowExpiryInPast;
+	private Duration minimumRefreshDuration;
+	private List<URI> uris;
+	private List<String> issuers;
+	
+	@NotNull
+	public String getCollection() {
+		return collection;
+	}
+	public void setCollection(String collection) {
+		this.collection = collection;
+	}
+	
+	public String getCacheId() {
+		return cacheId;
+	}
+	public void setCacheId(String cacheId) {
+		this.cacheId = cacheId;
+	}
+	
+	public String getHttpClientId() {
+		return httpClientId;
+	}
+	public void setHttpClientId(String httpClientId) {
+		this.httpClientId = httpClientId;
+	}
+	
+	public Boolean getAllowExpiryInPast() {
+		return allowExpiryInPast;
+	}
+	public void setAllowExpiryInPast(Boolean allowExpiryInPast) {
+		this.allowExpiryInPast = allowExpiryInPast;
+	}
+	
+	public Duration getMinimumRefreshDuration() {
+		return minimumRefreshDuration;
+	}
+	public void setMinimumRefreshDuration(Duration minimumRefreshDuration) {
+		this.minimumRefreshDuration = minimumRefreshDuration;
+	}
+	
+	@NotNull
+	public List<URI> getUris() {
+		return uris;
+	}
+	public void setUris(List<URI> uris) {
+		this.uris = uris;
+	}
+	
+	public List<String> getIssuers() {
+		return issuers;
+	}
+	public void setIssuers(List<String> issuers) {
+		this.issuers = issuers;
+	}
+	
+}
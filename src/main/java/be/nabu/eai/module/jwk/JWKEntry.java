@@ -29,6 +29,18 @@ public class JWKEntry implements Serializable {
 	private Date expires;
 	
 	private Map<String, PublicKey> keys;
+	
+	// the rfc 7638 thumbprint of each key, by key id
+	private Map<String, String> thumbprints;
+	
+	// the keys with their metadata, by key id
+	private Map<String, JWKKey> index;
+	
+	// the raw jwks document the keys were parsed from
+	private byte[] content;
+	
+	// the validators of the last response, used to check whether the keys have changed
+	private String etag, lastModified;
 
 	public Date getExpires() {
 		return expires;
@@ -45,5 +57,45 @@ public class JWKEntry implements Serializable {
 	public void setKeys(Map<String, PublicKey> keys) {
 		this.keys = keys;
 	}
+
+	public Map<String, String> getThumbprints() {
+		return thumbprints;
+	}
+
+	public void setThumbprints(Map<String, String> thumbprints) {
+		this.thumbprints = thumbprints;
+	}
+
+	public Map<String, JWKKey> getIndex() {
+		return index;
+	}
+
+	public void setIndex(Map<String, JWKKey> index) {
+		this.index = index;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	public void setContent(byte[] content) {
+		this.content = content;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
 	
 }
@@ -0,0 +1,88 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * A compact, versioned binary format for a jwk entry. Only the raw jwks document and its metadata are written, the keys are rebuilt from the document when needed.
+ * This keeps the format independent of the jvm and security provider that built the keys.
+ */
+public class JWKEntryCodec {
+
+	// "JWKE"
+	private static final int MAGIC = 0x4a574b45;
+	private static final int VERSION = 1;
+
+	public static void write(JWKEntry entry, OutputStream output) throws IOException {
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		data.writeLong(entry.getExpires() == null ? 0 : entry.getExpires().getTime());
+		writeString(data, entry.getEtag());
+		writeString(data, entry.getLastModified());
+		byte[] content = entry.getContent();
+		data.writeInt(content == null ? -1 : content.length);
+		if (content != null) {
+			data.write(content);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads an entry, note that the keys are not yet built
+	 */
+	public static JWKEntry read(InputStream input) throws IOException {
+		DataInputStream data = new DataInputStream(input);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a serialized JWK entry");
+		}
+		int version = data.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported JWK entry version: " + version);
+		}
+		JWKEntry entry = new JWKEntry();
+		long expires = data.readLong();
+		entry.setExpires(expires == 0 ? null : new Date(expires));
+		entry.setEtag(readString(data));
+		entry.setLastModified(readString(data));
+		int length = data.readInt();
+		if (length >= 0) {
+			byte[] content = new byte[length];
+			data.readFully(content);
+			entry.setContent(content);
+		}
+		return entry;
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		data.writeBoolean(value != null);
+		if (value != null) {
+			data.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream data) throws IOException {
+		return data.readBoolean() ? data.readUTF() : null;
+	}
+}
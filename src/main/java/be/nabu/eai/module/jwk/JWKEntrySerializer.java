@@ -0,0 +1,47 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import be.nabu.libs.cache.api.DataSerializer;
+
+/**
+ * Stores jwk entries in a cache using the compact codec instead of java serialization of the keys.
+ * The keys of a deserialized entry are not yet built, the artifact builds them from the document when the entry is first used.
+ */
+public class JWKEntrySerializer implements DataSerializer<JWKEntry> {
+
+	@Override
+	public void serialize(JWKEntry object, OutputStream output) throws IOException {
+		JWKEntryCodec.write(object, output);
+	}
+
+	@Override
+	public JWKEntry deserialize(InputStream input) throws IOException {
+		return JWKEntryCodec.read(input);
+	}
+
+	@Override
+	public Class<JWKEntry> getDataClass() {
+		return JWKEntry.class;
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.nabu.eai.module.http.client.HTTPClientArtifact;
+import be.nabu.eai.repository.RepositoryThreadFactory;
+import be.nabu.eai.repository.api.Repository;
+import be.nabu.eai.repository.util.SystemPrincipal;
+import be.nabu.libs.http.api.client.HTTPClient;
+import nabu.protocols.http.client.Services;
+
+/**
+ * The threads and http clients shared by all the jwk artifacts, this prevents every artifact (and dynamic collection) from spinning up its own threads and connections
+ */
+public class JWKExecutors {
+
+	// the amount of threads that perform background refreshes
+	private static int refreshers = Integer.parseInt(System.getProperty("jwk.refreshers", "4"));
+
+	// the amount of threads that load keys at startup (or on demand), this bounds the amount of concurrent fetches over all artifacts
+	private static int loaders = Integer.parseInt(System.getProperty("jwk.loaders", "8"));
+
+	// the amount of threads that verify batches of tokens, verification is cpu bound
+	private static int verifiers = Integer.parseInt(System.getProperty("jwk.verifiers", Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+	// the http clients per http client artifact, they are weakly referenced so a reloaded artifact gets a new client
+	private static Map<HTTPClientArtifact, HTTPClient> clients = Collections.synchronizedMap(new WeakHashMap<HTTPClientArtifact, HTTPClient>());
+	private static volatile HTTPClient defaultClient;
+
+	private static volatile ScheduledExecutorService scheduler;
+	private static volatile ExecutorService loader, verifier;
+
+	public static ScheduledExecutorService getScheduler(Repository repository) {
+		if (scheduler == null) {
+			synchronized(JWKExecutors.class) {
+				if (scheduler == null) {
+					ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(refreshers, newThreadFactory(repository, "jwk-refresher"));
+					// we cancel a lot of scheduled refreshes when artifacts are stopped or reset, don't keep them around until their original trigger time
+					executor.setRemoveOnCancelPolicy(true);
+					scheduler = executor;
+				}
+			}
+		}
+		return scheduler;
+	}
+
+	public static ExecutorService getLoader(Repository repository) {
+		if (loader == null) {
+			synchronized(JWKExecutors.class) {
+				if (loader == null) {
+					ThreadPoolExecutor executor = new ThreadPoolExecutor(loaders, loaders, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), newThreadFactory(repository, "jwk-loader"));
+					// the loaders are mostly busy at startup, don't keep the threads around afterwards
+					executor.allowCoreThreadTimeOut(true);
+					loader = executor;
+				}
+			}
+		}
+		return loader;
+	}
+
+	public static ExecutorService getVerifier(Repository repository) {
+		if (verifier == null) {
+			synchronized(JWKExecutors.class) {
+				if (verifier == null) {
+					ThreadPoolExecutor executor = new ThreadPoolExecutor(verifiers, verifiers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), newThreadFactory(repository, "jwk-verifier"));
+					executor.allowCoreThreadTimeOut(true);
+					verifier = executor;
+				}
+			}
+		}
+		return verifier;
+	}
+
+	/**
+	 * Returns a long-lived client for the given artifact (or the default client if none is given) so connections can be reused across fetches
+	 */
+	public static HTTPClient getClient(Repository repository, HTTPClientArtifact artifact) throws IOException {
+		HTTPClient client = artifact == null ? defaultClient : clients.get(artifact);
+		if (client == null) {
+			synchronized(JWKExecutors.class) {
+				client = artifact == null ? defaultClient : clients.get(artifact);
+				if (client == null) {
+					client = Services.getTransactionable(repository.newExecutionContext(SystemPrincipal.ROOT), null, artifact).getClient();
+					if (artifact == null) {
+						defaultClient = client;
+					}
+					else {
+						clients.put(artifact, client);
+					}
+				}
+			}
+		}
+		return client;
+	}
+	
+	/**
+	 * If a client fails, we don't reuse it
+	 */
+	public static void discardClient(HTTPClientArtifact artifact, HTTPClient client) {
+		synchronized(JWKExecutors.class) {
+			if (artifact == null) {
+				if (defaultClient == client) {
+					defaultClient = null;
+				}
+			}
+			else if (clients.get(artifact) == client) {
+				clients.remove(artifact);
+			}
+		}
+	}
+
+	// need the correct context for deserializing
+	private static ThreadFactory newThreadFactory(Repository repository, final String name) {
+		final RepositoryThreadFactory repositoryThreadFactory = new RepositoryThreadFactory(repository);
+		final AtomicInteger counter = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = repositoryThreadFactory.newThread(runnable);
+				thread.setDaemon(true);
+				thread.setName(name + "-" + counter.incrementAndGet());
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,134 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indexes the started jwk artifacts (including dynamic ones) by the issuers they are configured for, so a token can be routed to the correct artifact
+ */
+public class JWKIssuers {
+
+	// the lists are never modified, they are replaced
+	private static Map<String, List<JWKArtifact>> issuers = new ConcurrentHashMap<String, List<JWKArtifact>>();
+	
+	// the largest token any of the registered artifacts accepts, anything larger can be rejected before it is routed
+	private static volatile int maximumTokenSize;
+
+	static synchronized void register(JWKArtifact artifact) {
+		// a reloaded artifact replaces the previous instance with the same id
+		remove(artifact.getId(), null);
+		List<String> configured = artifact.getConfig().getIssuers();
+		if (configured != null) {
+			for (String issuer : configured) {
+				if (issuer == null) {
+					continue;
+				}
+				List<JWKArtifact> artifacts = issuers.get(issuer);
+				artifacts = artifacts == null ? new ArrayList<JWKArtifact>() : new ArrayList<JWKArtifact>(artifacts);
+				artifacts.add(artifact);
+				issuers.put(issuer, Collections.unmodifiableList(artifacts));
+			}
+		}
+		calculateMaximumTokenSize();
+	}
+
+	static synchronized void unregister(JWKArtifact artifact) {
+		remove(artifact.getId(), artifact);
+		calculateMaximumTokenSize();
+	}
+	
+	private static void calculateMaximumTokenSize() {
+		int maximum = 0;
+		for (List<JWKArtifact> artifacts : issuers.values()) {
+			for (JWKArtifact artifact : artifacts) {
+				maximum = Math.max(maximum, artifact.getMaximumTokenSize());
+			}
+		}
+		maximumTokenSize = maximum;
+	}
+	
+	/**
+	 * Checks the size, the structure and the header of a token before the payload is decoded to find the issuer
+	 */
+	public static JWTHeader precheck(String content) throws ParseException {
+		// if nothing is registered, there is no limit to check against, the token will fail to route anyway
+		if (!issuers.isEmpty() && content.length() > maximumTokenSize) {
+			throw new ParseException("The token is too large for any of the configured issuers", 0);
+		}
+		JWKArtifact.checkStructure(content);
+		JWTHeader header = JWTHeader.parse(content);
+		if (header == null) {
+			throw new ParseException("The token header can not be parsed", 0);
+		}
+		// unsigned tokens are never accepted by any artifact, there is no need to route them
+		else if (header.getAlgorithm() == null || header.getAlgorithm().equalsIgnoreCase("none")) {
+			throw new ParseException("The token is not signed", 0);
+		}
+		return header;
+	}
+
+	// if an instance is given, only that instance is removed
+	private static void remove(String id, JWKArtifact instance) {
+		Iterator<Map.Entry<String, List<JWKArtifact>>> iterator = issuers.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, List<JWKArtifact>> entry = iterator.next();
+			List<JWKArtifact> artifacts = new ArrayList<JWKArtifact>(entry.getValue());
+			Iterator<JWKArtifact> artifactIterator = artifacts.iterator();
+			boolean removed = false;
+			while (artifactIterator.hasNext()) {
+				JWKArtifact artifact = artifactIterator.next();
+				if (instance == null ? artifact.getId().equals(id) : artifact == instance) {
+					artifactIterator.remove();
+					removed = true;
+				}
+			}
+			if (artifacts.isEmpty()) {
+				iterator.remove();
+			}
+			else if (removed) {
+				entry.setValue(Collections.unmodifiableList(artifacts));
+			}
+		}
+	}
+
+	/**
+	 * Returns the artifact for the given issuer. If multiple artifacts share the issuer, the key id is used to pick the one that has the key.
+	 */
+	public static JWKArtifact resolve(String issuer, String keyId) {
+		List<JWKArtifact> artifacts = issuer == null ? null : issuers.get(issuer);
+		if (artifacts == null || artifacts.isEmpty()) {
+			return null;
+		}
+		else if (artifacts.size() == 1 || keyId == null) {
+			return artifacts.get(0);
+		}
+		for (JWKArtifact artifact : artifacts) {
+			if (artifact.getSnapshot().getIndex().containsKey(keyId)) {
+				return artifact;
+			}
+		}
+		return artifacts.get(0);
+	}
+}
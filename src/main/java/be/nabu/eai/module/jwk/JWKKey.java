@@ -0,0 +1,147 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.Serializable;
+import java.security.PublicKey;
+import java.util.List;
+
+/**
+ * A key from a jwks document together with the metadata we need to decide whether it can verify a given token
+ */
+public class JWKKey implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private String keyId, thumbprint, keyType, algorithm, usage, x509Thumbprint, x509Thumbprint256;
+	private List<String> keyOperations;
+	private PublicKey key;
+	
+	// built on first use, a new key (e.g. after rotation) starts with a new verifier
+	private transient volatile JWKVerifier verifier;
+
+	/**
+	 * Whether the key may be used to verify signatures, keys that are explicitly meant for encryption are skipped
+	 */
+	public boolean isSignature() {
+		if (usage != null && !usage.equals("sig")) {
+			return false;
+		}
+		if (keyOperations != null && !keyOperations.isEmpty() && !keyOperations.contains("verify")) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether the key can be used for the given jws algorithm. If the key states an algorithm, it must match exactly, otherwise the key type must fit the algorithm.
+	 */
+	public boolean supports(String algorithm) {
+		if (algorithm == null) {
+			return true;
+		}
+		if (this.algorithm != null) {
+			return this.algorithm.equals(algorithm);
+		}
+		if (keyType == null) {
+			return false;
+		}
+		else if (algorithm.startsWith("RS") || algorithm.startsWith("PS")) {
+			return keyType.equals("RSA");
+		}
+		else if (algorithm.startsWith("ES")) {
+			return keyType.equals("EC");
+		}
+		else if (algorithm.equals("EdDSA")) {
+			return keyType.equals("OKP");
+		}
+		// symmetric algorithms (and "none") are never verified with a public key
+		return false;
+	}
+
+	public JWKVerifier getVerifier() {
+		if (verifier == null && key != null) {
+			verifier = new JWKVerifier(key);
+		}
+		return verifier;
+	}
+
+	public String getKeyId() {
+		return keyId;
+	}
+	public void setKeyId(String keyId) {
+		this.keyId = keyId;
+	}
+
+	public String getThumbprint() {
+		return thumbprint;
+	}
+	public void setThumbprint(String thumbprint) {
+		this.thumbprint = thumbprint;
+	}
+
+	public String getKeyType() {
+		return keyType;
+	}
+	public void setKeyType(String keyType) {
+		this.keyType = keyType;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+	public void setAlgorithm(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public String getUsage() {
+		return usage;
+	}
+	public void setUsage(String usage) {
+		this.usage = usage;
+	}
+
+	public String getX509Thumbprint() {
+		return x509Thumbprint;
+	}
+	public void setX509Thumbprint(String x509Thumbprint) {
+		this.x509Thumbprint = x509Thumbprint;
+	}
+
+	public String getX509Thumbprint256() {
+		return x509Thumbprint256;
+	}
+	public void setX509Thumbprint256(String x509Thumbprint256) {
+		this.x509Thumbprint256 = x509Thumbprint256;
+	}
+
+	public List<String> getKeyOperations() {
+		return keyOperations;
+	}
+	public void setKeyOperations(List<String> keyOperations) {
+		this.keyOperations = keyOperations;
+	}
+
+	public PublicKey getKey() {
+		return key;
+	}
+	public void setKey(PublicKey key) {
+		this.key = key;
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import be.nabu.libs.metrics.api.MetricInstance;
+
+/**
+ * Keeps the runtime statistics of a jwk artifact, both for the artifact as a whole and per uri.
+ * Artifact level values are also forwarded to the metric instance of the repository (if any).
+ */
+public class JWKMetrics {
+	
+	// a load that could be answered from the cache
+	public static final String CACHE_HIT = "cacheHit";
+	// an expired entry that was served while refreshing in the background
+	public static final String STALE_HIT = "staleHit";
+	public static final String CACHE_MISS = "cacheMiss";
+	public static final String REFRESH = "refresh";
+	public static final String REFRESH_TIME = "refreshTime";
+	public static final String NOT_MODIFIED = "notModified";
+	// another node in the cluster was already refreshing, we waited for its result
+	public static final String REFRESH_DELEGATED = "refreshDelegated";
+	// the endpoint could not be reached or responded with a non-successful status
+	public static final String FETCH_FAILURE = "fetchFailure";
+	public static final String FETCH_FAILURE_STATUS = "fetchFailureStatus";
+	// the document could not be parsed or a key in it could not be built
+	public static final String PARSE_FAILURE = "parseFailure";
+	public static final String KEY_FAILURE = "keyFailure";
+	public static final String KEY_COUNT = "keyCount";
+	// a refresh failed and we kept the previous keys
+	public static final String RETAINED = "retained";
+	public static final String CONSECUTIVE_FAILURES = "consecutiveFailures";
+	public static final String UNKNOWN_KEY = "unknownKey";
+	public static final String UNKNOWN_KEY_REFRESH = "unknownKeyRefresh";
+	public static final String VERIFICATION = "verification";
+	public static final String VERIFICATION_TIME = "verificationTime";
+	public static final String VERIFICATION_FAILURE = "verificationFailure";
+	public static final String TOKEN_CACHE_HIT = "tokenCacheHit";
+	// a token that was rejected based on its structure or header alone, the reason is appended
+	public static final String REJECTED = "rejected";
+	
+	// the key used for the artifact level values
+	private static final String ARTIFACT = "";
+
+	private MetricInstance metrics;
+	private Map<String, Map<String, LongAdder>> counters = new ConcurrentHashMap<String, Map<String, LongAdder>>();
+	private Map<String, Map<String, AtomicLong>> gauges = new ConcurrentHashMap<String, Map<String, AtomicLong>>();
+
+	public JWKMetrics(MetricInstance metrics) {
+		this.metrics = metrics;
+	}
+
+	public void increment(String uri, String name) {
+		counter(ARTIFACT, name).increment();
+		if (uri != null) {
+			counter(uri, name).increment();
+		}
+		if (metrics != null) {
+			metrics.increment(name, 1);
+		}
+	}
+
+	/**
+	 * Logs a duration in milliseconds, we keep the total and the maximum, the amount can be deduced from the matching counter
+	 */
+	public void time(String uri, String name, long duration) {
+		counter(ARTIFACT, name + "Total").add(duration);
+		max(gauge(ARTIFACT, name + "Max"), duration);
+		if (uri != null) {
+			counter(uri, name + "Total").add(duration);
+			max(gauge(uri, name + "Max"), duration);
+		}
+		if (metrics != null) {
+			metrics.log(name, duration);
+		}
+	}
+
+	public void set(String uri, String name, long value) {
+		gauge(uri == null ? ARTIFACT : uri, name).set(value);
+	}
+
+	public void remove(String uri) {
+		counters.remove(uri);
+		gauges.remove(uri);
+	}
+
+	public List<JWKStatistic> getStatistics() {
+		List<JWKStatistic> statistics = new ArrayList<JWKStatistic>();
+		Map<String, Map<String, Long>> values = new TreeMap<String, Map<String, Long>>();
+		for (Map.Entry<String, Map<String, LongAdder>> entry : counters.entrySet()) {
+			for (Map.Entry<String, LongAdder> counter : entry.getValue().entrySet()) {
+				value(values, entry.getKey()).put(counter.getKey(), counter.getValue().sum());
+			}
+		}
+		for (Map.Entry<String, Map<String, AtomicLong>> entry : gauges.entrySet()) {
+			for (Map.Entry<String, AtomicLong> gauge : entry.getValue().entrySet()) {
+				value(values, entry.getKey()).put(gauge.getKey(), gauge.getValue().get());
+			}
+		}
+		for (Map.Entry<String, Map<String, Long>> entry : values.entrySet()) {
+			for (Map.Entry<String, Long> value : entry.getValue().entrySet()) {
+				statistics.add(new JWKStatistic(entry.getKey().equals(ARTIFACT) ? null : entry.getKey(), value.getKey(), value.getValue()));
+			}
+		}
+		return statistics;
+	}
+
+	private static Map<String, Long> value(Map<String, Map<String, Long>> values, String uri) {
+		Map<String, Long> map = values.get(uri);
+		if (map == null) {
+			map = new TreeMap<String, Long>();
+			values.put(uri, map);
+		}
+		return map;
+	}
+
+	private static void max(AtomicLong gauge, long value) {
+		long current = gauge.get();
+		while (value > current && !gauge.compareAndSet(current, value)) {
+			current = gauge.get();
+		}
+	}
+
+	private LongAdder counter(String uri, String name) {
+		Map<String, LongAdder> map = counters.get(uri);
+		if (map == null) {
+			counters.putIfAbsent(uri, new ConcurrentHashMap<String, LongAdder>());
+			map = counters.get(uri);
+		}
+		LongAdder counter = map.get(name);
+		if (counter == null) {
+			map.putIfAbsent(name, new LongAdder());
+			counter = map.get(name);
+		}
+		return counter;
+	}
+
+	private AtomicLong gauge(String uri, String name) {
+		Map<String, AtomicLong> map = gauges.get(uri);
+		if (map == null) {
+			gauges.putIfAbsent(uri, new ConcurrentHashMap<String, AtomicLong>());
+			map = gauges.get(uri);
+		}
+		AtomicLong gauge = map.get(name);
+		if (gauge == null) {
+			map.putIfAbsent(name, new AtomicLong());
+			gauge = map.get(name);
+		}
+		return gauge;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class JWKReadiness {
+	
+	// whether all the started jwk artifacts have their keys loaded
+	private boolean ready;
+	// the artifacts that are still loading their keys
+	private List<String> pending = new ArrayList<String>();
+	// the artifacts that finished loading but have no keys
+	private List<String> failed = new ArrayList<String>();
+	
+	public boolean isReady() {
+		return ready;
+	}
+	public void setReady(boolean ready) {
+		this.ready = ready;
+	}
+	
+	public List<String> getPending() {
+		return pending;
+	}
+	public void setPending(List<String> pending) {
+		this.pending = pending;
+	}
+	
+	public List<String> getFailed() {
+		return failed;
+	}
+	public void setFailed(List<String> failed) {
+		this.failed = failed;
+	}
+	
+}
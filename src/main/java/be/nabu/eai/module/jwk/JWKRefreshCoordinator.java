@@ -0,0 +1,36 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.IOException;
+
+/**
+ * Coordinates refreshes between the nodes of a cluster so only one node fetches a given jwks document at the same time.
+ * The other nodes wait for the result to show up in the shared cache.
+ */
+public interface JWKRefreshCoordinator {
+	/**
+	 * Tries to acquire the lease for refreshing the given key. The lease expires automatically after the given duration (in milliseconds) so a node that dies does not block the others.
+	 */
+	public boolean acquire(String key, long duration) throws IOException;
+	
+	/**
+	 * Releases a lease we acquired, this does nothing if we are no longer the owner
+	 */
+	public void release(String key) throws IOException;
+}
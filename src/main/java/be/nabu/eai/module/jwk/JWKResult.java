@@ -0,0 +1,43 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import be.nabu.libs.http.jwt.JWTBody;
+
+public class JWKResult {
+	
+	// the decoded token, if it was valid
+	private JWTBody jwt;
+	// why the token could not be decoded
+	private String error;
+	
+	public JWTBody getJwt() {
+		return jwt;
+	}
+	public void setJwt(JWTBody jwt) {
+		this.jwt = jwt;
+	}
+	
+	public String getError() {
+		return error;
+	}
+	public void setError(String error) {
+		this.error = error;
+	}
+	
+}
@@ -0,0 +1,158 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The merged public keys of a snapshot as a pre-encoded jwks document, it is built once per snapshot so serving it is just handing over the bytes
+ */
+public class JWKSDocument {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// the members we publish, anything else (most importantly private key material) is left out
+	private static final Set<String> PUBLIC_MEMBERS = new HashSet<String>(Arrays.asList("kty", "kid", "use", "alg", "key_ops", "n", "e", "crv", "x", "y", "x5c", "x5t", "x5t#S256", "x5u"));
+
+	private byte[] content;
+	private String etag;
+	private long expires;
+
+	private JWKSDocument(byte[] content, String etag, long expires) {
+		this.content = content;
+		this.etag = etag;
+		this.expires = expires;
+	}
+
+	/**
+	 * Builds the document for the snapshot, if the result is identical to the previous document, the previous one is returned so its etag remains valid
+	 */
+	static JWKSDocument build(JWKSnapshot snapshot, JWKSDocument previous) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"keys\":[");
+		boolean first = true;
+		Set<String> written = new HashSet<String>();
+		for (JWKEntry entry : snapshot.getEntries().values()) {
+			if (entry == null || entry.getContent() == null) {
+				continue;
+			}
+			List<Map<String, Object>> keys;
+			try {
+				keys = JWKSParser.parseKeys(entry.getContent());
+			}
+			catch (Exception e) {
+				continue;
+			}
+			for (Map<String, Object> key : keys) {
+				String thumbprint = JWKUtils.thumbprint(key);
+				// symmetric keys are secrets, they are never published
+				if (thumbprint == null || "oct".equals(key.get("kty"))) {
+					continue;
+				}
+				String keyId = key.get("kid") instanceof String ? (String) key.get("kid") : thumbprint;
+				JWKKey indexed = snapshot.getIndex().get(keyId);
+				// we only publish the keys that actually made it into the snapshot (e.g. they could be built and were not overwritten by another uri)
+				if (indexed == null || !thumbprint.equals(indexed.getThumbprint()) || !written.add(keyId)) {
+					continue;
+				}
+				if (!first) {
+					builder.append(',');
+				}
+				first = false;
+				appendKey(builder, key, keyId);
+			}
+		}
+		builder.append("]}");
+		byte[] content = builder.toString().getBytes(UTF8);
+		long expires = snapshot.getExpires();
+		if (previous != null && Arrays.equals(previous.content, content)) {
+			return previous.expires == expires ? previous : new JWKSDocument(previous.content, previous.etag, expires);
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			return new JWKSDocument(content, "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"", expires);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void appendKey(StringBuilder builder, Map<String, Object> key, String keyId) {
+		builder.append('{');
+		builder.append("\"kid\":");
+		JWKUtils.appendString(builder, keyId);
+		for (Map.Entry<String, Object> member : key.entrySet()) {
+			if (member.getKey().equals("kid") || !PUBLIC_MEMBERS.contains(member.getKey()) || member.getValue() == null) {
+				continue;
+			}
+			builder.append(',');
+			JWKUtils.appendString(builder, member.getKey());
+			builder.append(':');
+			appendValue(builder, member.getValue());
+		}
+		builder.append('}');
+	}
+	
+	private static void appendValue(StringBuilder builder, Object value) {
+		if (value instanceof String) {
+			JWKUtils.appendString(builder, (String) value);
+		}
+		else if (value instanceof List) {
+			builder.append('[');
+			boolean first = true;
+			for (Object child : (List<?>) value) {
+				if (!first) {
+					builder.append(',');
+				}
+				first = false;
+				appendValue(builder, child);
+			}
+			builder.append(']');
+		}
+		else if (value == null) {
+			builder.append("null");
+		}
+		// numbers and booleans
+		else {
+			builder.append(value.toString());
+		}
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * When the underlying keys expire, this can be used for cache headers
+	 */
+	public long getExpires() {
+		return expires;
+	}
+}
@@ -0,0 +1,388 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A dedicated parser for jwks documents (and other flat json objects like jwt headers).
+ * Unlike the generic json binding it does not build a typed content tree, it only keeps the members a jwk can actually use: strings, numbers, booleans and lists of those.
+ * Nested objects are skipped.
+ * The parser works directly on the utf-8 bytes, structural characters are always ascii so only the strings we actually keep are decoded.
+ */
+public class JWKSParser {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// json in a jwks document or a token has no business being deeply nested, this bounds the work we do for hostile input
+	private static final int MAXIMUM_DEPTH = 32;
+	
+	// the members of a key we keep, everything else (including private key material) is skipped without being decoded
+	private static final Set<String> KEY_MEMBERS = new HashSet<String>(Arrays.asList("kty", "kid", "use", "alg", "key_ops", "n", "e", "crv", "x", "y", "k", "x5c", "x5t", "x5t#S256", "x5u"));
+
+	private byte[] content;
+	private int index;
+
+	private JWKSParser(byte[] content) {
+		this.content = content;
+	}
+
+	/**
+	 * Reads the full stream but fails if it is larger than the given limit
+	 */
+	public static byte[] read(InputStream input, long limit) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		long total = 0;
+		while ((read = input.read(buffer)) > 0) {
+			total += read;
+			if (total > limit) {
+				throw new IOException("The JWKS document exceeds the maximum size of " + limit + " bytes");
+			}
+			output.write(buffer, 0, read);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Returns the members of each key in the "keys" array of a jwks document. Entries in the array that are not objects are ignored.
+	 * Only the members that are relevant for a public key are kept.
+	 * A document without a "keys" array (e.g. an error response) is not a jwks document and fails to parse.
+	 */
+	public static List<Map<String, Object>> parseKeys(byte[] content) throws ParseException {
+		JWKSParser parser = new JWKSParser(content);
+		List<Map<String, Object>> keys = new ArrayList<Map<String, Object>>();
+		parser.expect('{');
+		if (parser.next() == '}') {
+			throw new ParseException("Missing keys array", parser.index);
+		}
+		boolean found = false;
+		while (true) {
+			String name = parser.readString();
+			parser.expect(':');
+			if (name.equals("keys")) {
+				if (parser.next() != '[') {
+					throw new ParseException("The keys member is not an array", parser.index);
+				}
+				found = true;
+				parser.index++;
+				if (parser.next() == ']') {
+					parser.index++;
+				}
+				else {
+					while (true) {
+						if (parser.next() == '{') {
+							keys.add(parser.readObject(KEY_MEMBERS));
+						}
+						else {
+							parser.skipValue();
+						}
+						if (!parser.hasMore(']')) {
+							break;
+						}
+					}
+				}
+			}
+			else {
+				parser.skipValue();
+			}
+			if (!parser.hasMore('}')) {
+				break;
+			}
+		}
+		if (!found) {
+			throw new ParseException("Missing keys array", parser.index);
+		}
+		parser.expectEnd();
+		return keys;
+	}
+
+	/**
+	 * Parses a flat json object, nested objects are skipped
+	 */
+	public static Map<String, Object> parseObject(byte[] content) throws ParseException {
+		JWKSParser parser = new JWKSParser(content);
+		if (parser.next() != '{') {
+			throw new ParseException("Expecting a json object", parser.index);
+		}
+		Map<String, Object> object = parser.readObject(null);
+		parser.expectEnd();
+		return object;
+	}
+
+	// if members are given, only those are kept
+	private Map<String, Object> readObject(Set<String> members) throws ParseException {
+		Map<String, Object> object = new HashMap<String, Object>();
+		expect('{');
+		if (next() == '}') {
+			index++;
+			return object;
+		}
+		while (true) {
+			String name = readString();
+			expect(':');
+			char character = next();
+			if (character == '{' || (members != null && !members.contains(name))) {
+				skipValue();
+			}
+			else if (character == '[') {
+				object.put(name, readArray());
+			}
+			else {
+				Object value = readScalar();
+				if (value != null) {
+					object.put(name, value);
+				}
+			}
+			if (!hasMore('}')) {
+				break;
+			}
+		}
+		return object;
+	}
+
+	private List<Object> readArray() throws ParseException {
+		List<Object> list = new ArrayList<Object>();
+		expect('[');
+		if (next() == ']') {
+			index++;
+			return list;
+		}
+		while (true) {
+			char character = next();
+			if (character == '{' || character == '[') {
+				skipValue();
+			}
+			else {
+				list.add(readScalar());
+			}
+			if (!hasMore(']')) {
+				break;
+			}
+		}
+		return list;
+	}
+
+	private Object readScalar() throws ParseException {
+		char character = next();
+		if (character == '"') {
+			return readString();
+		}
+		else if (startsWith("true")) {
+			index += 4;
+			return true;
+		}
+		else if (startsWith("false")) {
+			index += 5;
+			return false;
+		}
+		else if (startsWith("null")) {
+			index += 4;
+			return null;
+		}
+		else if (character == '-' || (character >= '0' && character <= '9')) {
+			int start = index;
+			boolean decimal = false;
+			while (index < content.length) {
+				character = (char) content[index];
+				if (character == '.' || character == 'e' || character == 'E') {
+					decimal = true;
+				}
+				else if (character != '-' && character != '+' && (character < '0' || character > '9')) {
+					break;
+				}
+				index++;
+			}
+			String number = new String(content, start, index - start, UTF8);
+			try {
+				return decimal ? (Object) Double.parseDouble(number) : (Object) Long.parseLong(number);
+			}
+			catch (NumberFormatException e) {
+				try {
+					return Double.parseDouble(number);
+				}
+				catch (NumberFormatException f) {
+					throw new ParseException("Invalid number: " + number, start);
+				}
+			}
+		}
+		throw new ParseException("Unexpected character: " + character, index);
+	}
+
+	// skips a value without recursion so a deeply nested value (e.g. in an untrusted token) can not exhaust the stack
+	private void skipValue() throws ParseException {
+		// the closing characters of the objects and arrays we are in
+		StringBuilder closing = new StringBuilder();
+		do {
+			char character = next();
+			if (character == '{' || character == '[') {
+				index++;
+				char close = character == '{' ? '}' : ']';
+				if (next() == close) {
+					index++;
+				}
+				else {
+					// the object or array we are skipping is itself already nested in an object
+					if (closing.length() + 1 >= MAXIMUM_DEPTH) {
+						throw new ParseException("The json exceeds the maximum depth of " + MAXIMUM_DEPTH, index);
+					}
+					closing.append(close);
+					if (close == '}') {
+						readString();
+						expect(':');
+					}
+					continue;
+				}
+			}
+			else {
+				readScalar();
+			}
+			// a value is complete, close the objects and arrays that have no more elements
+			while (closing.length() > 0) {
+				char close = closing.charAt(closing.length() - 1);
+				if (hasMore(close)) {
+					if (close == '}') {
+						readString();
+						expect(':');
+					}
+					break;
+				}
+				closing.setLength(closing.length() - 1);
+			}
+		}
+		while (closing.length() > 0);
+	}
+
+	private String readString() throws ParseException {
+		expect('"');
+		StringBuilder builder = null;
+		int start = index;
+		// the start of the bytes that have not been added to the builder yet
+		int pending = index;
+		while (index < content.length) {
+			byte character = content[index++];
+			if (character == '"') {
+				if (builder == null) {
+					return new String(content, start, index - 1 - start, UTF8);
+				}
+				builder.append(new String(content, pending, index - 1 - pending, UTF8));
+				return builder.toString();
+			}
+			else if (character == '\\') {
+				if (builder == null) {
+					builder = new StringBuilder();
+				}
+				builder.append(new String(content, pending, index - 1 - pending, UTF8));
+				if (index >= content.length) {
+					break;
+				}
+				char escaped = (char) content[index++];
+				switch (escaped) {
+					case 'b': builder.append('\b'); break;
+					case 'f': builder.append('\f'); break;
+					case 'n': builder.append('\n'); break;
+					case 'r': builder.append('\r'); break;
+					case 't': builder.append('\t'); break;
+					case 'u':
+						if (index + 4 > content.length) {
+							throw new ParseException("Invalid unicode escape", index);
+						}
+						try {
+							builder.append((char) Integer.parseInt(new String(content, index, 4, UTF8), 16));
+						}
+						catch (NumberFormatException e) {
+							throw new ParseException("Invalid unicode escape", index);
+						}
+						index += 4;
+					break;
+					default: builder.append(escaped);
+				}
+				pending = index;
+			}
+		}
+		throw new ParseException("Unterminated string", start);
+	}
+
+	private boolean startsWith(String value) {
+		if (index + value.length() > content.length) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (content[index + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// checks whether there is another element in the current object or array, otherwise it consumes the closing character
+	private boolean hasMore(char closing) throws ParseException {
+		char character = next();
+		index++;
+		if (character == ',') {
+			return true;
+		}
+		else if (character == closing) {
+			return false;
+		}
+		throw new ParseException("Expecting ',' or '" + closing + "' but found: " + character, index - 1);
+	}
+
+	private void expect(char expected) throws ParseException {
+		char character = next();
+		if (character != expected) {
+			throw new ParseException("Expecting '" + expected + "' but found: " + character, index);
+		}
+		index++;
+	}
+
+	// only whitespace is allowed after the document
+	private void expectEnd() throws ParseException {
+		while (index < content.length) {
+			char character = (char) content[index];
+			if (character != ' ' && character != '\t' && character != '\n' && character != '\r') {
+				throw new ParseException("Unexpected content after the json document", index);
+			}
+			index++;
+		}
+	}
+
+	// skips whitespace and returns the next character without consuming it
+	private char next() throws ParseException {
+		while (index < content.length) {
+			char character = (char) content[index];
+			if (character != ' ' && character != '\t' && character != '\n' && character != '\r') {
+				return character;
+			}
+			index++;
+		}
+		throw new ParseException("Unexpected end of json", index);
+	}
+}
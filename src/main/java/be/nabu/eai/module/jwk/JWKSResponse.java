@@ -0,0 +1,64 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+public class JWKSResponse {
+	
+	// the jwks document, this is empty if the caller already has the current version
+	private byte[] content;
+	private String etag, contentType;
+	// how long (in seconds) the document can be cached
+	private long maxAge;
+	private boolean notModified;
+	
+	public byte[] getContent() {
+		return content;
+	}
+	public void setContent(byte[] content) {
+		this.content = content;
+	}
+	
+	public String getEtag() {
+		return etag;
+	}
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+	
+	public String getContentType() {
+		return contentType;
+	}
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+	
+	public long getMaxAge() {
+		return maxAge;
+	}
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+	
+	public boolean isNotModified() {
+		return notModified;
+	}
+	public void setNotModified(boolean notModified) {
+		this.notModified = notModified;
+	}
+	
+}
@@ -0,0 +1,194 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.net.URI;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view on the keys of all the configured uris at a given point in time.
+ * The merged key map is calculated once when the snapshot is created, a new snapshot is only created when the underlying entries change.
+ */
+public class JWKSnapshot {
+
+	// the uri configuration this snapshot was built for, if the configuration is swapped we need a new snapshot
+	private final List<URI> uris;
+
+	// the entries per uri (ascii string)
+	private final Map<String, JWKEntry> entries;
+
+	// the merged keys, later uris overwrite earlier ones in case of conflicting key ids
+	private final Map<String, PublicKey> keys;
+
+	// the keys with their metadata, by key id
+	private final Map<String, JWKKey> index;
+	
+	// the first moment one of the entries expires
+	private final long expires;
+	
+	// the published document, built on first request
+	private volatile JWKSDocument document;
+	
+	// how long after expiry we can keep using the snapshot, this is only set if a background refresh is responsible for updating it
+	private final long staleness;
+
+	JWKSnapshot(List<URI> uris, Map<String, JWKEntry> entries, long staleness) {
+		this.uris = uris;
+		this.staleness = staleness;
+		// we keep the order of the configured uris, it determines which key wins in case of conflicting key ids
+		Map<String, JWKEntry> ordered = new LinkedHashMap<String, JWKEntry>();
+		if (uris != null) {
+			for (URI uri : uris) {
+				if (uri != null && entries.containsKey(uri.toASCIIString())) {
+					ordered.put(uri.toASCIIString(), entries.get(uri.toASCIIString()));
+				}
+			}
+		}
+		entries = ordered;
+		this.entries = Collections.unmodifiableMap(ordered);
+		Map<String, PublicKey> keys = new LinkedHashMap<String, PublicKey>();
+		Map<String, JWKKey> index = new LinkedHashMap<String, JWKKey>();
+		long expires = Long.MAX_VALUE;
+		for (JWKEntry entry : entries.values()) {
+			if (entry == null) {
+				continue;
+			}
+			if (entry.getKeys() != null) {
+				keys.putAll(entry.getKeys());
+			}
+			if (entry.getIndex() != null) {
+				index.putAll(entry.getIndex());
+			}
+			if (entry.getExpires() != null) {
+				expires = Math.min(expires, entry.getExpires().getTime());
+			}
+		}
+		this.keys = Collections.unmodifiableMap(keys);
+		this.index = Collections.unmodifiableMap(index);
+		this.expires = expires;
+	}
+
+	/**
+	 * Creates a new snapshot where the entry for the given uri is replaced, the current snapshot is left untouched
+	 */
+	JWKSnapshot with(String uri, JWKEntry entry) {
+		Map<String, JWKEntry> entries = new LinkedHashMap<String, JWKEntry>(this.entries);
+		entries.put(uri, entry);
+		return new JWKSnapshot(uris, entries, staleness);
+	}
+
+	/**
+	 * Selects the keys that can verify a token with the given header.
+	 * If the token has a key id we know, we return only that key (or none if it can not be used for the algorithm of the token).
+	 * Without a key id we use the x509 thumbprints, and otherwise all signature keys that support the algorithm.
+	 * If the key id is unknown, all keys are returned as before.
+	 */
+	public Map<String, PublicKey> getCandidates(JWTHeader header) {
+		if (header == null || (header.getKeyId() != null && !index.containsKey(header.getKeyId()))) {
+			return keys;
+		}
+		Map<String, PublicKey> candidates = new LinkedHashMap<String, PublicKey>();
+		for (JWKKey key : getCandidateKeys(header)) {
+			candidates.put(key.getKeyId(), key.getKey());
+		}
+		return candidates;
+	}
+	
+	/**
+	 * Selects the keys that can verify a token with the given header, an unknown key id matches no keys
+	 */
+	public List<JWKKey> getCandidateKeys(JWTHeader header) {
+		if (header.getKeyId() != null) {
+			JWKKey key = index.get(header.getKeyId());
+			return key != null && isUsable(key, header) ? Collections.singletonList(key) : Collections.<JWKKey>emptyList();
+		}
+		List<JWKKey> candidates = new ArrayList<JWKKey>();
+		for (JWKKey key : index.values()) {
+			if (!isUsable(key, header)) {
+				continue;
+			}
+			if ((header.getX509Thumbprint() != null && header.getX509Thumbprint().equals(key.getX509Thumbprint()))
+					|| (header.getX509Thumbprint256() != null && header.getX509Thumbprint256().equals(key.getX509Thumbprint256()))) {
+				return Collections.singletonList(key);
+			}
+			candidates.add(key);
+		}
+		return candidates;
+	}
+	
+	private boolean isUsable(JWKKey key, JWTHeader header) {
+		return key.getKey() != null && key.isSignature() && key.supports(header.getAlgorithm());
+	}
+
+	/**
+	 * Creates a new snapshot for a different list of uris, the entries of the uris that remain are kept
+	 */
+	JWKSnapshot withUris(List<URI> uris) {
+		return new JWKSnapshot(uris, entries, staleness);
+	}
+	
+	// whether the uri is part of the configuration this snapshot was built for
+	boolean contains(String uri) {
+		if (uris != null) {
+			for (URI configured : uris) {
+				if (configured != null && configured.toASCIIString().equals(uri)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// the previous document is used to keep the etag stable if nothing changed
+	JWKSDocument getDocument(JWKSDocument previous) {
+		if (document == null) {
+			document = JWKSDocument.build(this, previous);
+		}
+		return document;
+	}
+
+	boolean isExpired(long now) {
+		return expires == Long.MAX_VALUE ? false : expires + staleness <= now;
+	}
+
+	List<URI> getUris() {
+		return uris;
+	}
+
+	public Map<String, JWKEntry> getEntries() {
+		return entries;
+	}
+
+	public Map<String, PublicKey> getKeys() {
+		return keys;
+	}
+
+	public Map<String, JWKKey> getIndex() {
+		return index;
+	}
+
+	public long getExpires() {
+		return expires;
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+
+public class JWKUtils {
+
+	/**
+	 * Calculates the thumbprint of a jwk as defined in https://datatracker.ietf.org/doc/html/rfc7638
+	 * Only the required members of the key type are used (in lexicographic order), so the thumbprint is stable regardless of the optional members or their ordering.
+	 * Returns null if the key type is not supported or a required member is missing.
+	 */
+	public static String thumbprint(Map<String, ?> jwk) {
+		Object keyType = jwk.get("kty");
+		String [] members;
+		if ("RSA".equals(keyType)) {
+			members = new String [] { "e", "kty", "n" };
+		}
+		else if ("EC".equals(keyType)) {
+			members = new String [] { "crv", "kty", "x", "y" };
+		}
+		else if ("OKP".equals(keyType)) {
+			members = new String [] { "crv", "kty", "x" };
+		}
+		else if ("oct".equals(keyType)) {
+			members = new String [] { "k", "kty" };
+		}
+		else {
+			return null;
+		}
+		StringBuilder builder = new StringBuilder();
+		builder.append('{');
+		for (int i = 0; i < members.length; i++) {
+			Object value = jwk.get(members[i]);
+			if (!(value instanceof String)) {
+				return null;
+			}
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append('"').append(members[i]).append("\":");
+			appendString(builder, (String) value);
+		}
+		builder.append('}');
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(builder.toString().getBytes(Charset.forName("UTF-8")));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// the values are usually base64url encoded so no escaping is required but we don't want to rely on that
+	static void appendString(StringBuilder builder, String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char character = value.charAt(i);
+			switch (character) {
+				case '"': builder.append("\\\""); break;
+				case '\\': builder.append("\\\\"); break;
+				case '\n': builder.append("\\n"); break;
+				case '\r': builder.append("\\r"); break;
+				case '\t': builder.append("\\t"); break;
+				case '\b': builder.append("\\b"); break;
+				case '\f': builder.append("\\f"); break;
+				default:
+					if (character < 0x20) {
+						builder.append(String.format("\\u%04x", (int) character));
+					}
+					else {
+						builder.append(character);
+					}
+			}
+		}
+		builder.append('"');
+	}
+}
@@ -0,0 +1,181 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verifies jws signatures for a single key. Creating and initializing a signature instance is expensive compared to the verification itself,
+ * so we keep an initialized instance per thread and per algorithm. A signature instance resets itself after each verification so it can be reused.
+ */
+public class JWKVerifier {
+
+	private PublicKey key;
+	private ConcurrentHashMap<String, ThreadLocal<Signature>> signatures = new ConcurrentHashMap<String, ThreadLocal<Signature>>();
+
+	public JWKVerifier(PublicKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Verifies the signature of the content with the given jws algorithm (e.g. RS256)
+	 */
+	public boolean verify(String algorithm, byte[] content, byte[] signature) throws GeneralSecurityException {
+		ThreadLocal<Signature> local = signatures.get(algorithm);
+		if (local == null) {
+			local = new ThreadLocal<Signature>();
+			ThreadLocal<Signature> existing = signatures.putIfAbsent(algorithm, local);
+			if (existing != null) {
+				local = existing;
+			}
+		}
+		Signature instance = local.get();
+		if (instance == null) {
+			instance = newSignature(algorithm);
+			instance.initVerify(key);
+			local.set(instance);
+		}
+		// the jws format for elliptic curve signatures is the raw concatenation of r and s, java expects der
+		if (algorithm.startsWith("ES")) {
+			signature = toDER(signature, getCoordinateLength(algorithm));
+			if (signature == null) {
+				return false;
+			}
+		}
+		try {
+			instance.update(content);
+			return instance.verify(signature);
+		}
+		catch (GeneralSecurityException e) {
+			// the state of the instance is unclear after a failure, start over the next time
+			local.remove();
+			throw e;
+		}
+		catch (RuntimeException e) {
+			local.remove();
+			throw e;
+		}
+	}
+
+	private static Signature newSignature(String algorithm) throws GeneralSecurityException {
+		try {
+			return Signature.getInstance(getJCAAlgorithm(algorithm));
+		}
+		catch (NoSuchAlgorithmException e) {
+			// the named rsa-pss algorithms are offered by bouncy castle, the jdk (11+) only has the generic rsassa-pss that needs explicit parameters
+			if (algorithm.startsWith("PS")) {
+				String digest = "SHA-" + algorithm.substring(2);
+				Signature signature = Signature.getInstance("RSASSA-PSS");
+				// jwa mandates mgf1 with the same hash and a salt as long as the hash
+				signature.setParameter(new PSSParameterSpec(digest, "MGF1", new MGF1ParameterSpec(digest), Integer.parseInt(algorithm.substring(2)) / 8, 1));
+				return signature;
+			}
+			throw e;
+		}
+	}
+
+	private static String getJCAAlgorithm(String algorithm) throws NoSuchAlgorithmException {
+		if (algorithm.equals("RS256")) {
+			return "SHA256withRSA";
+		}
+		else if (algorithm.equals("RS384")) {
+			return "SHA384withRSA";
+		}
+		else if (algorithm.equals("RS512")) {
+			return "SHA512withRSA";
+		}
+		else if (algorithm.equals("ES256")) {
+			return "SHA256withECDSA";
+		}
+		else if (algorithm.equals("ES384")) {
+			return "SHA384withECDSA";
+		}
+		else if (algorithm.equals("ES512")) {
+			return "SHA512withECDSA";
+		}
+		else if (algorithm.equals("PS256")) {
+			return "SHA256withRSAandMGF1";
+		}
+		else if (algorithm.equals("PS384")) {
+			return "SHA384withRSAandMGF1";
+		}
+		else if (algorithm.equals("PS512")) {
+			return "SHA512withRSAandMGF1";
+		}
+		// the curve (Ed25519 or Ed448) follows from the key, this is available in the jdk since 15 or through bouncy castle
+		else if (algorithm.equals("EdDSA")) {
+			return "EdDSA";
+		}
+		throw new NoSuchAlgorithmException("Unsupported JWS algorithm: " + algorithm);
+	}
+
+	private static int getCoordinateLength(String algorithm) {
+		if (algorithm.equals("ES384")) {
+			return 48;
+		}
+		else if (algorithm.equals("ES512")) {
+			return 66;
+		}
+		return 32;
+	}
+
+	// converts r || s to a der encoded sequence of two integers
+	private static byte[] toDER(byte[] raw, int length) {
+		if (raw.length != length * 2) {
+			return null;
+		}
+		byte[] r = toInteger(raw, 0, length);
+		byte[] s = toInteger(raw, length, length);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		output.write(0x30);
+		writeLength(output, r.length + s.length + 4 + (r.length >= 128 ? 1 : 0) + (s.length >= 128 ? 1 : 0));
+		output.write(0x02);
+		writeLength(output, r.length);
+		output.write(r, 0, r.length);
+		output.write(0x02);
+		writeLength(output, s.length);
+		output.write(s, 0, s.length);
+		return output.toByteArray();
+	}
+
+	// strips leading zeroes but keeps the integer positive
+	private static byte[] toInteger(byte[] raw, int offset, int length) {
+		int start = offset;
+		while (start < offset + length - 1 && raw[start] == 0) {
+			start++;
+		}
+		boolean pad = (raw[start] & 0x80) != 0;
+		byte[] result = new byte[offset + length - start + (pad ? 1 : 0)];
+		System.arraycopy(raw, start, result, pad ? 1 : 0, offset + length - start);
+		return result;
+	}
+
+	private static void writeLength(ByteArrayOutputStream output, int length) {
+		if (length >= 128) {
+			output.write(0x81);
+		}
+		output.write(length);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the warm-up of all started jwk artifacts (including dynamic ones) so we can report whether the node is ready to verify tokens
+ */
+public class JWKWarmup {
+
+	// the default time we wait for all artifacts to warm up
+	private static long timeout = Long.parseLong(System.getProperty("jwk.warmup.timeout", "30000"));
+
+	private static Map<String, JWKArtifact> artifacts = new ConcurrentHashMap<String, JWKArtifact>();
+
+	static void register(JWKArtifact artifact) {
+		artifacts.put(artifact.getId(), artifact);
+	}
+
+	static void unregister(JWKArtifact artifact) {
+		artifacts.remove(artifact.getId(), artifact);
+	}
+
+	/**
+	 * Waits at most the given amount of milliseconds (over all artifacts) for the warm-up to finish. If no timeout is given, the default is used.
+	 */
+	public static JWKReadiness await(Long timeout) {
+		long deadline = System.currentTimeMillis() + (timeout == null ? JWKWarmup.timeout : timeout);
+		JWKReadiness readiness = new JWKReadiness();
+		for (JWKArtifact artifact : new ArrayList<JWKArtifact>(artifacts.values())) {
+			Future<?> warmup = artifact.getWarmup();
+			if (warmup == null) {
+				continue;
+			}
+			try {
+				warmup.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+			catch (Exception e) {
+				// the loading itself logs its failures, here we only care whether it is done
+			}
+			if (!warmup.isDone()) {
+				readiness.getPending().add(artifact.getId());
+			}
+			else if (!artifact.hasKeys()) {
+				readiness.getFailed().add(artifact.getId());
+			}
+		}
+		readiness.setReady(readiness.getPending().isEmpty() && readiness.getFailed().isEmpty());
+		return readiness;
+	}
+}
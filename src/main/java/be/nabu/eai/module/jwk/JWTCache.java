@@ -0,0 +1,151 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.libs.http.jwt.JWTBody;
+
+/**
+ * Caches the result of verified tokens so a token that is reused does not need to be parsed and have its signature checked every time.
+ * A cached result never outlives the expiry of the token itself and it is only valid as long as the key that signed it is still part of the current keys.
+ */
+public class JWTCache {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private Map<String, CachedToken> tokens = new ConcurrentHashMap<String, CachedToken>();
+	private int maxSize;
+	private long timeout;
+
+	public JWTCache(int maxSize, long timeout) {
+		this.maxSize = maxSize;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns the cached result for the token if it is still valid for the given key map
+	 */
+	public JWTBody get(String token, Map<String, PublicKey> keyMap) {
+		String hash = hash(token);
+		CachedToken cached = tokens.get(hash);
+		if (cached == null) {
+			return null;
+		}
+		if (cached.expires <= System.currentTimeMillis() || !cached.isValid(keyMap)) {
+			tokens.remove(hash, cached);
+			return null;
+		}
+		return cached.body;
+	}
+
+	public void put(String token, JWTBody body, String keyId, Map<String, PublicKey> keyMap) {
+		long now = System.currentTimeMillis();
+		long expires = now + timeout;
+		Long tokenExpires = getExpires(token);
+		if (tokenExpires != null) {
+			expires = Math.min(expires, tokenExpires);
+		}
+		if (expires <= now) {
+			return;
+		}
+		if (tokens.size() >= maxSize) {
+			prune(now);
+		}
+		tokens.put(hash(token), new CachedToken(body, expires, keyId, keyId == null ? null : keyMap.get(keyId), keyMap));
+	}
+
+	public void clear() {
+		tokens.clear();
+	}
+
+	// first we remove everything that has expired, if we still have too many, we drop arbitrary entries until we have some room again
+	private void prune(long now) {
+		Iterator<CachedToken> iterator = tokens.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().expires <= now) {
+				iterator.remove();
+			}
+		}
+		iterator = tokens.values().iterator();
+		while (tokens.size() >= maxSize * 0.9 && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	private static String hash(String token) {
+		return Base64.getEncoder().encodeToString(digests.get().digest(token.getBytes(UTF8)));
+	}
+
+	// the expiry of the token in milliseconds, the token has already been validated at this point
+	private static Long getExpires(String token) {
+		String[] parts = token.split("\\.");
+		if (parts.length < 2) {
+			return null;
+		}
+		try {
+			Map<String, Object> content = JWTHeader.parseSegment(parts[1]);
+			Object exp = content.get("exp");
+			return exp instanceof Number ? ((Number) exp).longValue() * 1000 : null;
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static class CachedToken {
+		private JWTBody body;
+		private long expires;
+		private String keyId;
+		private PublicKey key;
+		private Map<String, PublicKey> keyMap;
+
+		public CachedToken(JWTBody body, long expires, String keyId, PublicKey key, Map<String, PublicKey> keyMap) {
+			this.body = body;
+			this.expires = expires;
+			this.keyId = keyId;
+			this.key = key;
+			this.keyMap = keyMap;
+		}
+
+		// if we know which key signed it, that key must still be present, otherwise the keys must not have changed at all
+		public boolean isValid(Map<String, PublicKey> keyMap) {
+			return keyId == null ? this.keyMap == keyMap : key != null && key.equals(keyMap.get(keyId));
+		}
+	}
+}
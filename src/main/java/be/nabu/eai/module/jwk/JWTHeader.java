@@ -0,0 +1,104 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.text.ParseException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * The header of a jwt, this allows us to select keys before the token is actually decoded
+ */
+public class JWTHeader {
+
+	private String algorithm, keyId, type, x509Thumbprint, x509Thumbprint256;
+
+	/**
+	 * Parses the header of a compact serialized jwt, returns null if the token does not have a parseable header
+	 */
+	public static JWTHeader parse(String token) {
+		int index = token == null ? -1 : token.indexOf('.');
+		if (index <= 0) {
+			return null;
+		}
+		try {
+			Map<String, Object> content = parseSegment(token.substring(0, index));
+			JWTHeader header = new JWTHeader();
+			header.setAlgorithm(getString(content, "alg"));
+			header.setKeyId(getString(content, "kid"));
+			header.setType(getString(content, "typ"));
+			header.setX509Thumbprint(getString(content, "x5t"));
+			header.setX509Thumbprint256(getString(content, "x5t#S256"));
+			return header;
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+	
+	// parses a base64url encoded json segment of the token, we only need the flat members so we use the dedicated parser rather than a full json binding
+	static Map<String, Object> parseSegment(String segment) throws ParseException {
+		try {
+			return JWKSParser.parseObject(Base64.getUrlDecoder().decode(segment));
+		}
+		catch (IllegalArgumentException e) {
+			throw new ParseException("Invalid base64url encoding", 0);
+		}
+	}
+
+	private static String getString(Map<String, Object> content, String name) {
+		Object value = content.get(name);
+		return value instanceof String ? (String) value : null;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+	public void setAlgorithm(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public String getKeyId() {
+		return keyId;
+	}
+	public void setKeyId(String keyId) {
+		this.keyId = keyId;
+	}
+
+	public String getType() {
+		return type;
+	}
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getX509Thumbprint() {
+		return x509Thumbprint;
+	}
+	public void setX509Thumbprint(String x509Thumbprint) {
+		this.x509Thumbprint = x509Thumbprint;
+	}
+
+	public String getX509Thumbprint256() {
+		return x509Thumbprint256;
+	}
+	public void setX509Thumbprint256(String x509Thumbprint256) {
+		this.x509Thumbprint256 = x509Thumbprint256;
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory coordinator, multiple artifacts sharing the same instance behave like the nodes of a cluster.
+ * This is mostly useful for testing, in a single jvm the single-flight loading of the artifact already prevents duplicate fetches.
+ */
+public class LocalRefreshCoordinator implements JWKRefreshCoordinator {
+
+	private Map<String, Long> leases = new ConcurrentHashMap<String, Long>();
+	
+	// the leases we hold, a different coordinator instance sharing the leases is considered to be a different node
+	private Map<String, Long> owned = new ConcurrentHashMap<String, Long>();
+	
+	public LocalRefreshCoordinator() {
+		// auto
+	}
+	
+	/**
+	 * Creates a coordinator that shares its leases with the given one
+	 */
+	public LocalRefreshCoordinator(LocalRefreshCoordinator cluster) {
+		this.leases = cluster.leases;
+	}
+	
+	@Override
+	public boolean acquire(String key, long duration) {
+		long now = System.currentTimeMillis();
+		Long expires = now + duration;
+		while (true) {
+			Long current = leases.get(key);
+			if (current == null) {
+				if (leases.putIfAbsent(key, expires) == null) {
+					owned.put(key, expires);
+					return true;
+				}
+			}
+			// a lease that is still valid and not ours
+			else if (current > now && !current.equals(owned.get(key))) {
+				return false;
+			}
+			else if (leases.replace(key, current, expires)) {
+				owned.put(key, expires);
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public void release(String key) {
+		Long expires = owned.remove(key);
+		if (expires != null) {
+			leases.remove(key, expires);
+		}
+	}
+
+}
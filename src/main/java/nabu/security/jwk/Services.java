@@ -22,8 +22,10 @@ import java.net.URI;
 import java.security.KeyStoreException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jws.WebParam;
 import javax.jws.WebResult;
@@ -33,6 +35,16 @@ import javax.validation.constraints.NotNull;
 import be.nabu.eai.api.NamingConvention;
 import be.nabu.eai.module.http.client.HTTPClientArtifact;
 import be.nabu.eai.module.jwk.JWKArtifact;
+import be.nabu.eai.module.jwk.JWKDynamicConfiguration;
+import be.nabu.eai.module.jwk.JWKIssuers;
+import be.nabu.eai.module.jwk.JWKReadiness;
+import be.nabu.eai.module.jwk.JWKSDocument;
+import be.nabu.eai.module.jwk.JWKSResponse;
+import be.nabu.eai.module.jwk.JWKResult;
+import be.nabu.eai.module.jwk.JWKSParser;
+import be.nabu.eai.module.jwk.JWKStatistic;
+import be.nabu.eai.module.jwk.JWKWarmup;
+import be.nabu.eai.module.jwk.JWTHeader;
 import be.nabu.eai.repository.EAINode;
 import be.nabu.eai.repository.EAIResourceRepository;
 import be.nabu.eai.repository.api.CacheProviderArtifact;
@@ -40,14 +52,12 @@ import be.nabu.eai.repository.api.Entry;
 import be.nabu.eai.repository.api.ModifiableEntry;
 import be.nabu.eai.repository.resources.MemoryEntry;
 import be.nabu.libs.http.jwt.JWTBody;
-import be.nabu.libs.http.jwt.JWTUtils;
 import be.nabu.libs.resources.memory.MemoryDirectory;
 import be.nabu.libs.types.base.Duration;
 
 @WebService
 public class Services {
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@WebResult(name = "jwt")
 	public JWTBody unmarshal(
 			@WebParam(name = "jwkId") @NotNull String keystoreId, 
@@ -59,14 +69,77 @@ public class Services {
 			throw new IllegalArgumentException("Not a valid JWK artifact: " + keystoreId);
 		}
 		if (content != null) {
-			Map keyMap = jwk.getKeyMap();
-			return JWTUtils.decode(keyMap, content);
+			return jwk.unmarshal(content);
 		}
 		return null;
 	}
 	
+	// the resolved artifacts by the id the caller used, a stopped artifact (e.g. because the repository was reloaded) is resolved again
+	private static Map<String, JWKArtifact> resolved = new ConcurrentHashMap<String, JWKArtifact>();
+	
 	private JWKArtifact resolve(String id) {
-		return (JWKArtifact) EAIResourceRepository.getInstance().resolve(id.indexOf('.') < 0 ? "nabu.security.jwk.dynamic." + NamingConvention.LOWER_CAMEL_CASE.apply(NamingConvention.UNDERSCORE.apply(id)) : id);
+		JWKArtifact artifact = resolved.get(id);
+		if (artifact == null || !artifact.isStarted()) {
+			artifact = (JWKArtifact) EAIResourceRepository.getInstance().resolve(id.indexOf('.') < 0 ? "nabu.security.jwk.dynamic." + NamingConvention.LOWER_CAMEL_CASE.apply(NamingConvention.UNDERSCORE.apply(id)) : id);
+			if (artifact != null && artifact.isStarted()) {
+				resolved.put(id, artifact);
+			}
+			else {
+				resolved.remove(id);
+			}
+		}
+		return artifact;
+	}
+	
+	/**
+	 * Verifies a token with the jwk that is configured for its issuer
+	 */
+	@WebResult(name = "jwt")
+	public JWTBody unmarshalByIssuer(@WebParam(name = "content") String content) throws KeyStoreException, IOException, ParseException {
+		if (content == null) {
+			return null;
+		}
+		// the token is untrusted, we check the size, structure and header before we decode the payload
+		JWTHeader header = JWKIssuers.precheck(content);
+		String[] parts = content.split("\\.");
+		// we only need the issuer to route the token, the artifact verifies it
+		Object issuer;
+		try {
+			issuer = JWKSParser.parseObject(Base64.getUrlDecoder().decode(parts[1])).get("iss");
+		}
+		catch (IllegalArgumentException e) {
+			throw new ParseException("Not a valid JWT", 0);
+		}
+		JWKArtifact jwk = issuer instanceof String ? JWKIssuers.resolve((String) issuer, header.getKeyId()) : null;
+		if (jwk == null) {
+			throw new IllegalArgumentException("No JWK configured for issuer: " + issuer);
+		}
+		return jwk.unmarshal(content);
+	}
+	
+	@WebResult(name = "results")
+	public List<JWKResult> unmarshalAll(
+			@WebParam(name = "jwkId") @NotNull String keystoreId, 
+			@WebParam(name = "contents") List<String> contents) throws IOException {
+		JWKArtifact jwk = resolve(keystoreId);
+		if (jwk == null) {
+			throw new IllegalArgumentException("Not a valid JWK artifact: " + keystoreId);
+		}
+		if (contents == null || contents.isEmpty()) {
+			return new ArrayList<JWKResult>();
+		}
+		return jwk.unmarshal(contents);
+	}
+	
+	@WebResult(name = "valid")
+	public boolean verify(
+			@WebParam(name = "jwkId") @NotNull String keystoreId, 
+			@WebParam(name = "content") String content) throws IOException {
+		JWKArtifact jwk = resolve(keystoreId);
+		if (jwk == null) {
+			throw new IllegalArgumentException("Not a valid JWK artifact: " + keystoreId);
+		}
+		return content != null && jwk.verify(content);
 	}
 	
 	@WebResult(name = "keyIds")
@@ -78,14 +151,91 @@ public class Services {
 		return new ArrayList<String>(jwk.getKeyMap().keySet());
 	}
 	
+	@WebResult(name = "statistics")
+	public List<JWKStatistic> statistics(@WebParam(name = "jwkId") @NotNull String keystoreId) {
+		JWKArtifact jwk = resolve(keystoreId);
+		if (jwk == null) {
+			throw new IllegalArgumentException("Not a valid JWK artifact: " + keystoreId);
+		}
+		return jwk.getMetrics().getStatistics();
+	}
+	
+	@WebResult(name = "response")
+	public JWKSResponse jwks(
+			@WebParam(name = "jwkId") @NotNull String keystoreId,
+			@WebParam(name = "ifNoneMatch") String ifNoneMatch) {
+		JWKArtifact jwk = resolve(keystoreId);
+		if (jwk == null) {
+			throw new IllegalArgumentException("Not a valid JWK artifact: " + keystoreId);
+		}
+		JWKSDocument document = jwk.getDocument();
+		JWKSResponse response = new JWKSResponse();
+		response.setEtag(document.getEtag());
+		response.setContentType("application/jwk-set+json");
+		response.setMaxAge(document.getExpires() == Long.MAX_VALUE ? 0 : Math.max(0, (document.getExpires() - System.currentTimeMillis()) / 1000));
+		if (document.getEtag().equals(ifNoneMatch)) {
+			response.setNotModified(true);
+		}
+		else {
+			response.setContent(document.getContent());
+		}
+		return response;
+	}
+	
+	@WebResult(name = "uris")
+	public List<String> degraded(@WebParam(name = "jwkId") @NotNull String keystoreId) {
+		JWKArtifact jwk = resolve(keystoreId);
+		if (jwk == null) {
+			throw new IllegalArgumentException("Not a valid JWK artifact: " + keystoreId);
+		}
+		return jwk.getDegradedUris();
+	}
+	
+	@WebResult(name = "readiness")
+	public JWKReadiness readiness(@WebParam(name = "timeout") Long timeout) {
+		return JWKWarmup.await(timeout);
+	}
+	
 	public void configureDynamic(
 			@NotNull @WebParam(name = "collection") String collection, 
 			@WebParam(name = "cacheId") String cacheId,
 			@WebParam(name = "allowExpiryInPast") Boolean allowExpiryInPast,
 			@WebParam(name = "minimumRefreshDuration") Duration minimumRefreshDuration,
 			@WebParam(name = "httpClientId") String httpClientId,
-			@NotNull @WebParam(name = "uris") List<URI> uris) throws IOException, ParseException {
+			@NotNull @WebParam(name = "uris") List<URI> uris,
+			@WebParam(name = "issuers") List<String> issuers) throws IOException, ParseException {
 		
+		if (configure(collection, cacheId, allowExpiryInPast, minimumRefreshDuration, httpClientId, uris, issuers)) {
+			// reset entry map so the new entries are picked up, e.g. for cache resets
+			EAIResourceRepository.getInstance().resetEntryMap();
+		}
+		// the collection may be known under several ids, the simplest is to start over
+		resolved.clear();
+	}
+	
+	// configures many collections at once, the entry map is only reset once
+	public void configureDynamics(@WebParam(name = "collections") List<JWKDynamicConfiguration> collections) throws IOException, ParseException {
+		if (collections == null || collections.isEmpty()) {
+			return;
+		}
+		boolean added = false;
+		for (JWKDynamicConfiguration configuration : collections) {
+			if (configuration == null) {
+				continue;
+			}
+			if (configuration.getCollection() == null || configuration.getUris() == null) {
+				throw new IllegalArgumentException("A dynamic JWK collection needs a name and uris");
+			}
+			added |= configure(configuration.getCollection(), configuration.getCacheId(), configuration.getAllowExpiryInPast(), configuration.getMinimumRefreshDuration(), configuration.getHttpClientId(), configuration.getUris(), configuration.getIssuers());
+		}
+		if (added) {
+			EAIResourceRepository.getInstance().resetEntryMap();
+		}
+		resolved.clear();
+	}
+	
+	// returns true if a new entry was added
+	private boolean configure(String collection, String cacheId, Boolean allowExpiryInPast, Duration minimumRefreshDuration, String httpClientId, List<URI> uris, List<String> issuers) throws IOException {
 		String collectionName = NamingConvention.LOWER_CAMEL_CASE.apply(NamingConvention.UNDERSCORE.apply(collection));
 		String dynamicId = "nabu.security.jwk.dynamic";
 		Entry dynamic = EAIResourceRepository.getInstance().getEntry(dynamicId);
@@ -98,6 +248,7 @@ public class Services {
 		}
 		Entry jwkEntry = dynamic.getChild(collectionName);
 		JWKArtifact jwkArtifact;
+		boolean added = false;
 		if (jwkEntry == null) {
 			EAINode node = new EAINode();
 			jwkArtifact = new JWKArtifact(dynamicId + "." + collectionName, new MemoryDirectory(), dynamic.getRepository());
@@ -107,20 +258,27 @@ public class Services {
 			jwkEntry = new MemoryEntry(dynamic.getRepository(), dynamic, node, jwkArtifact.getId(), collectionName);
 			node.setEntry(jwkEntry);
 			((ModifiableEntry) dynamic).addChildren(jwkEntry);
-			// reset entry map so the new entries are picked up, e.g. for cache resets
-			EAIResourceRepository.getInstance().resetEntryMap();
+			added = true;
 		}
 		else {
 			jwkArtifact = (JWKArtifact) jwkEntry.getNode().getArtifact();
 		}
+		CacheProviderArtifact cacheProvider = cacheId == null ? null : (CacheProviderArtifact) EAIResourceRepository.getInstance().resolve(cacheId);
+		// the cache is created at startup, if it changes we need to start over
+		if (jwkArtifact.isStarted() && cacheProvider != jwkArtifact.getConfig().getCacheProvider()) {
+			jwkArtifact.stop();
+		}
 		// update the configuration
-		jwkArtifact.getConfig().setCacheProvider(cacheId == null ? null : (CacheProviderArtifact) EAIResourceRepository.getInstance().resolve(cacheId));
+		jwkArtifact.getConfig().setCacheProvider(cacheProvider);
 		jwkArtifact.getConfig().setAllowExpiryInPast(allowExpiryInPast != null && allowExpiryInPast);
 		jwkArtifact.getConfig().setMinimumRefreshDuration(minimumRefreshDuration);
 		jwkArtifact.getConfig().setHttpClient(httpClientId == null ? null : (HTTPClientArtifact) EAIResourceRepository.getInstance().resolve(httpClientId));
-		jwkArtifact.getConfig().setUris(uris);
+		// unchanged uris keep their keys, added ones are loaded in the background and removed ones are evicted
+		jwkArtifact.updateUris(uris);
+		jwkArtifact.updateIssuers(issuers);
 		if (!jwkArtifact.isStarted()) {
 			jwkArtifact.start();
 		}
+		return added;
 	}
 }
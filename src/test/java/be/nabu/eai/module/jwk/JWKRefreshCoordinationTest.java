@@ -0,0 +1,109 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.junit.Test;
+
+import be.nabu.libs.cache.impl.AccessBasedTimeoutManager;
+import be.nabu.libs.cache.memory.MemoryCache;
+import be.nabu.libs.resources.memory.MemoryDirectory;
+
+/**
+ * Two artifacts that share a cache and a lease act as two nodes of a cluster
+ */
+public class JWKRefreshCoordinationTest {
+
+	@Test
+	public void testNonLeaderPicksUpRotatedKey() throws Exception {
+		File file = File.createTempFile("jwks", ".json");
+		file.deleteOnExit();
+		Files.write(file.toPath(), document("initial"));
+		URI uri = file.toURI();
+		
+		MemoryCache cache = new MemoryCache(null, new AccessBasedTimeoutManager(60l * 60 * 1000));
+		LocalRefreshCoordinator leaderCoordinator = new LocalRefreshCoordinator();
+		JWKArtifact leader = newArtifact("test.leader", uri, cache, leaderCoordinator);
+		JWKArtifact follower = newArtifact("test.follower", uri, cache, new LocalRefreshCoordinator(leaderCoordinator));
+		try {
+			leader.start();
+			leader.getWarmup().get();
+			follower.start();
+			follower.getWarmup().get();
+			assertTrue(follower.getKeyMap().containsKey("initial"));
+			
+			// the keys are rotated while the leader holds the lease, the follower can not refresh and keeps its current keys
+			Files.write(file.toPath(), document("rotated"));
+			assertTrue(leaderCoordinator.acquire(uri.toASCIIString(), 30000));
+			assertFalse(follower.getKeyMap("rotated").containsKey("rotated"));
+			
+			// the leader refreshes and stores the new document in the shared cache
+			leader.loadJWK(uri, true);
+			assertTrue(leader.getKeyMap().containsKey("rotated"));
+			
+			// the follower must pick it up shortly, even though its regular refresh is a long way off
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!follower.getKeyMap().containsKey("rotated") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(100);
+			}
+			assertTrue(follower.getKeyMap().containsKey("rotated"));
+		}
+		finally {
+			follower.stop();
+			leader.stop();
+		}
+	}
+
+	private static JWKArtifact newArtifact(String id, URI uri, MemoryCache cache, JWKRefreshCoordinator coordinator) {
+		JWKArtifact artifact = new JWKArtifact(id, new MemoryDirectory(), null);
+		artifact.getConfig().setUris(Arrays.asList(uri));
+		// a regular background refresh is planned, the follow-up check for the refresh of the other node must not wait for it
+		artifact.getConfig().setStaleWhileRevalidate(true);
+		artifact.setCache(cache);
+		artifact.setRefreshCoordinator(coordinator);
+		return artifact;
+	}
+
+	private static byte[] document(String keyId) throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		RSAPublicKey key = (RSAPublicKey) generator.generateKeyPair().getPublic();
+		return ("{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"" + keyId + "\",\"use\":\"sig\",\"alg\":\"RS256\",\"n\":\"" + encode(key.getModulus()) + "\",\"e\":\"" + encode(key.getPublicExponent()) + "\"}]}").getBytes(Charset.forName("UTF-8"));
+	}
+
+	// base64url encoding of the unsigned big endian value
+	private static String encode(BigInteger value) {
+		byte[] bytes = value.toByteArray();
+		if (bytes[0] == 0 && bytes.length > 1) {
+			bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+	}
+}
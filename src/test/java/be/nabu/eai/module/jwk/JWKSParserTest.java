@@ -0,0 +1,101 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JWKSParserTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testNestedValuesAreSkipped() throws ParseException {
+		Map<String, Object> object = JWKSParser.parseObject("{\"a\":[1,[2,{\"b\":{\"c\":[]}},{}],\"x\"],\"n\":{\"o\":{}},\"iss\":\"me\"}".getBytes(UTF8));
+		assertEquals("me", object.get("iss"));
+		assertFalse(object.containsKey("n"));
+	}
+
+	// a deeply nested value must be rejected rather than exhaust the stack
+	@Test
+	public void testDeepNesting() {
+		StringBuilder builder = new StringBuilder("{\"a\":");
+		for (int i = 0; i < 100000; i++) {
+			builder.append('[');
+		}
+		for (int i = 0; i < 100000; i++) {
+			builder.append(']');
+		}
+		builder.append('}');
+		try {
+			JWKSParser.parseObject(builder.toString().getBytes(UTF8));
+			fail("Expected the depth limit to be enforced");
+		}
+		catch (ParseException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNestingWithinLimit() throws ParseException {
+		StringBuilder builder = new StringBuilder("{\"a\":");
+		for (int i = 0; i < 30; i++) {
+			builder.append("{\"b\":");
+		}
+		builder.append("1");
+		for (int i = 0; i < 30; i++) {
+			builder.append('}');
+		}
+		builder.append(",\"iss\":\"me\"}");
+		assertEquals("me", JWKSParser.parseObject(builder.toString().getBytes(UTF8)).get("iss"));
+	}
+
+	@Test
+	public void testMissingKeys() {
+		for (String document : new String[] { "{}", "{\"error\":\"invalid_request\"}", "{\"keys\":{}}" }) {
+			try {
+				JWKSParser.parseKeys(document.getBytes(UTF8));
+				fail("Expected a parse exception for: " + document);
+			}
+			catch (ParseException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testTrailingContent() throws ParseException {
+		assertEquals(0, JWKSParser.parseKeys("{\"keys\":[]} \r\n".getBytes(UTF8)).size());
+		for (String document : new String[] { "{\"keys\":[]}<html></html>", "{\"keys\":[]}{\"keys\":[]}", "{\"keys\":[]} x" }) {
+			try {
+				JWKSParser.parseKeys(document.getBytes(UTF8));
+				fail("Expected a parse exception for: " + document);
+			}
+			catch (ParseException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.jwk;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+
+import org.junit.Test;
+
+public class JWKVerifierTest {
+
+	private static final byte[] CONTENT = "eyJhbGciOiJFUzI1NiJ9.eyJzdWIiOiJ0ZXN0In0".getBytes(Charset.forName("ASCII"));
+
+	@Test
+	public void testES256() throws GeneralSecurityException {
+		testEC("ES256", "secp256r1", "SHA256withECDSA", 32);
+	}
+
+	@Test
+	public void testES384() throws GeneralSecurityException {
+		testEC("ES384", "secp384r1", "SHA384withECDSA", 48);
+	}
+
+	@Test
+	public void testES512() throws GeneralSecurityException {
+		testEC("ES512", "secp521r1", "SHA512withECDSA", 66);
+	}
+
+	@Test
+	public void testPS256() throws GeneralSecurityException {
+		testPS("PS256", 256);
+	}
+
+	@Test
+	public void testPS384() throws GeneralSecurityException {
+		testPS("PS384", 384);
+	}
+
+	@Test
+	public void testPS512() throws GeneralSecurityException {
+		testPS("PS512", 512);
+	}
+
+	// needs a jdk with eddsa support (15+)
+	@Test
+	public void testEdDSA() throws GeneralSecurityException {
+		KeyPair pair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+		Signature signer = Signature.getInstance("Ed25519");
+		signer.initSign(pair.getPrivate());
+		signer.update(CONTENT);
+		byte[] signature = signer.sign();
+		JWKVerifier verifier = new JWKVerifier(pair.getPublic());
+		assertTrue(verifier.verify("EdDSA", CONTENT, signature));
+		assertFalse(verifier.verify("EdDSA", CONTENT, tamper(signature)));
+	}
+
+	// the conversion from r || s to der has edge cases for integers with a leading zero or with the high bit set, we sign until we have seen both
+	private void testEC(String algorithm, String curve, String jcaAlgorithm, int length) throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec(curve));
+		KeyPair pair = generator.generateKeyPair();
+		Signature signer = Signature.getInstance(jcaAlgorithm);
+		JWKVerifier verifier = new JWKVerifier(pair.getPublic());
+		boolean leadingZero = false, highBit = false;
+		// a p-521 coordinate has only one significant bit in its first byte so it never has the high bit set, but its der sequence needs a long form length
+		boolean needsHighBit = length != 66;
+		for (int i = 0; i < 5000 && (i < 100 || !leadingZero || (needsHighBit && !highBit)); i++) {
+			signer.initSign(pair.getPrivate());
+			signer.update(CONTENT);
+			byte[] raw = toRaw(signer.sign(), length);
+			leadingZero |= raw[0] == 0 || raw[length] == 0;
+			highBit |= (raw[0] & 0x80) != 0 || (raw[length] & 0x80) != 0;
+			assertTrue(verifier.verify(algorithm, CONTENT, raw));
+		}
+		assertTrue(leadingZero);
+		assertTrue(highBit || !needsHighBit);
+		signer.initSign(pair.getPrivate());
+		signer.update(CONTENT);
+		byte[] raw = toRaw(signer.sign(), length);
+		assertFalse(verifier.verify(algorithm, CONTENT, tamper(raw)));
+		// the raw signature must have exactly twice the coordinate length
+		byte[] truncated = new byte[raw.length - 1];
+		System.arraycopy(raw, 0, truncated, 0, truncated.length);
+		assertFalse(verifier.verify(algorithm, CONTENT, truncated));
+		// a der encoded signature is not a valid jws signature
+		signer.initSign(pair.getPrivate());
+		signer.update(CONTENT);
+		assertFalse(verifier.verify(algorithm, CONTENT, signer.sign()));
+	}
+
+	// signs with the generic rsassa-pss of the jdk using the parameters mandated by jwa
+	private void testPS(String algorithm, int bits) throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair pair = generator.generateKeyPair();
+		String digest = "SHA-" + bits;
+		Signature signer = Signature.getInstance("RSASSA-PSS");
+		signer.setParameter(new PSSParameterSpec(digest, "MGF1", new MGF1ParameterSpec(digest), bits / 8, 1));
+		signer.initSign(pair.getPrivate());
+		signer.update(CONTENT);
+		byte[] signature = signer.sign();
+		JWKVerifier verifier = new JWKVerifier(pair.getPublic());
+		assertTrue(verifier.verify(algorithm, CONTENT, signature));
+		// the instance is reused for the next verification
+		assertTrue(verifier.verify(algorithm, CONTENT, signature));
+		assertFalse(verifier.verify(algorithm, CONTENT, tamper(signature)));
+	}
+
+	private static byte[] tamper(byte[] signature) {
+		byte[] tampered = signature.clone();
+		tampered[tampered.length / 2] ^= 0x01;
+		return tampered;
+	}
+
+	// converts a der encoded ecdsa signature to the jws format: r and s as unsigned integers of a fixed length
+	private static byte[] toRaw(byte[] der, int length) {
+		byte[] raw = new byte[length * 2];
+		// skip the sequence header, the length is in long form if it is 128 or more
+		int index = der[1] == (byte) 0x81 ? 3 : 2;
+		for (int i = 0; i < 2; i++) {
+			int integerLength = der[index + 1];
+			index += 2;
+			// the integer may have a leading zero to keep it positive or it may be shorter than the coordinate length
+			int skip = Math.max(0, integerLength - length);
+			System.arraycopy(der, index + skip, raw, (i + 1) * length - (integerLength - skip), integerLength - skip);
+			index += integerLength;
+		}
+		return raw;
+	}
+}